@@ -0,0 +1,127 @@
+;;;
+;;;; Compiles the modules of the conf folder
+;;;
+;;
+;; Usage: java kawa.repl compile-conf.scm <conf folder> <output folder>
+;;
+;; Compiles the modules loaded by conf/user.scm with load-conf-module, in
+;; order, into classes of the package org.schemeway.plugins.schemescript.conf,
+;; and records the checksum of each source file in modules.properties. At run
+;; time, ConfModules loads a module from its class only if its source still
+;; has this checksum.
+;;
+;; A module is compiled in an environment holding the macros, namespaces and
+;; procedures of the modules before it, like when user.scm loads the sources.
+;; The other definitions and the top-level expressions are not evaluated,
+;; since there is no workbench during the build. The compilation stops at the
+;; first module with errors: this module and the ones after it are loaded from
+;; source.
+;;
+
+
+(require 'srfi-1)
+(require 'srfi-69)
+
+(define-namespace CompileFile      "class:kawa.lang.CompileFile")
+(define-namespace Compilation      "class:gnu.expr.Compilation")
+(define-namespace SourceMessages   "class:gnu.text.SourceMessages")
+(define-namespace CRC32            "class:java.util.zip.CRC32")
+(define-namespace File             "class:java.io.File")
+(define-namespace FileInputStream  "class:java.io.FileInputStream")
+(define-namespace FileOutputStream "class:java.io.FileOutputStream")
+(define-namespace Properties       "class:java.util.Properties")
+
+(let ()
+  (define conf-folder   (vector-ref command-line-arguments 0))
+  (define output-folder (vector-ref command-line-arguments 1))
+  (define package-name  "org.schemeway.plugins.schemescript.conf")
+
+  (define (string-replace-char str old new)
+    (list->string (map (lambda (c) (if (char=? c old) new c)) (string->list str))))
+
+  (define (conf-file filename)
+    (string-append conf-folder "/" filename))
+
+  (define (read-forms filename)
+    (call-with-input-file (conf-file filename)
+      (lambda (port)
+        (let loop ((forms '()))
+          (let ((form (read port)))
+            (if (eof-object? form)
+                (reverse forms)
+                (loop (cons form forms))))))))
+
+  ;; The modules loaded by user.scm, in order
+  (define (conf-modules)
+    (filter-map (lambda (form)
+                  (and (pair? form)
+                       (eq? (car form) 'load-conf-module)
+                       (cadr form)))
+                (read-forms "user.scm")))
+
+  (define (declaration? form)
+    (and (pair? form)
+         (or (memq (car form) '(define-syntax define-macro define-namespace define-alias require))
+             (and (eq? (car form) 'define)
+                  (pair? (cdr form))
+                  (pair? (cadr form))))))
+
+  (define (declare-module filename)
+    (for-each (lambda (form)
+                (if (declaration? form)
+                    (eval form (interaction-environment))))
+              (read-forms filename)))
+
+  ;; Compiles the module, like CompileFile:compile_to_files but without
+  ;; exiting on internal compiler errors. Returns #t if there was no error.
+  (define (compile-module filename)
+    (let ((messages   (SourceMessages:new))
+          (class-name (string-append package-name "."
+                                     (substring filename 0 (- (string-length filename) 4)))))
+      (format #t "(compiling ~a)~%" filename)
+      (try-catch
+          (let ((compilation (CompileFile:read (as <String> (conf-file filename)) messages)))
+            (unless (SourceMessages:seenErrors messages)
+              (Compilation:compileToFiles compilation
+                                          (Compilation:getModule compilation)
+                                          class-name
+                                          (string-append output-folder "/")
+                                          (string-append package-name "."))))
+        (exception <java.lang.Throwable>
+          (SourceMessages:error messages #\e
+                                (format #f "internal compiler error: ~a" (invoke exception 'toString)))))
+      (if (SourceMessages:seenErrors messages)
+          (begin
+            (format #t "~a~%" (SourceMessages:toString messages 20))
+            #f)
+          #t)))
+
+  ;; The CRC-32 of the file, in hexadecimal, as computed by ConfModules
+  (define (checksum filename)
+    (let ((crc    (CRC32:new))
+          (input  (FileInputStream:new (as <String> (conf-file filename))))
+          (buffer ((primitive-array-new <byte>) 8192)))
+      (let loop ()
+        (let ((count (FileInputStream:read input buffer)))
+          (when (> count 0)
+            (CRC32:update crc buffer 0 count)
+            (loop))))
+      (FileInputStream:close input)
+      (java.lang.Long:toHexString (CRC32:getValue crc))))
+
+  (let ((checksums (Properties:new)))
+    (let loop ((modules (conf-modules)))
+      (cond ((null? modules)
+             #t)
+            ((compile-module (car modules))
+             (Properties:setProperty checksums (car modules) (checksum (car modules)))
+             (declare-module (car modules))
+             (loop (cdr modules)))
+            (else
+             (format #t "(~a and the modules after it will be loaded from source)~%" (car modules)))))
+    (let ((folder (File:new (as <String> output-folder)
+                            (as <String> (string-replace-char package-name #\. #\/)))))
+      (File:mkdirs folder)
+      (let ((output (FileOutputStream:new (File:new folder "modules.properties"))))
+        (Properties:store checksums output "Checksums of the compiled conf modules")
+        (FileOutputStream:close output)))))
@@ -9,10 +9,12 @@
 
 
 (define (current-buffer)
-  (let ((page (org.eclipse.ui.IWorkbenchWindow:getActivePage
-               (org.eclipse.ui.IWorkbench:getActiveWorkbenchWindow
-                (org.eclipse.ui.PlatformUI:getWorkbench)))))
-    (org.eclipse.ui.IWorkbenchPage:getActiveEditor page)))
+  (in-display-thread
+   (lambda ()
+     (let ((page (org.eclipse.ui.IWorkbenchWindow:getActivePage
+                  (org.eclipse.ui.IWorkbench:getActiveWorkbenchWindow
+                   (org.eclipse.ui.PlatformUI:getWorkbench)))))
+       (org.eclipse.ui.IWorkbenchPage:getActiveEditor page)))))
 
 (define (buffer-document #!optional (buffer (current-buffer)))
   (SchemeEditor:getDocument buffer))
@@ -84,14 +86,13 @@
 
 
 (define (with-top-sexp proc #!optional (offset (point)) (buffer (current-buffer)))
-  (let loop ((top-offset offset))
-    (let ((up-offset (%up-sexp top-offset buffer)))
-      (if up-offset
-          (loop up-offset)
-          (let-values (((top-start top-end) (%forward-sexp top-offset buffer)))
-            (if (and top-start top-end)
-                (proc top-start top-end)
-                #f))))))
+  (let ((navigator (SchemeEditor:getExplorer buffer)))
+    (if (SexpNavigator:topLevelSexpression navigator offset)
+        (proc (SexpNavigator:getSexpStart navigator) (SexpNavigator:getSexpEnd navigator))
+        (let-values (((top-start top-end) (%forward-sexp offset buffer)))
+          (if (and top-start top-end)
+              (proc top-start top-end)
+              #f)))))
 
 
 
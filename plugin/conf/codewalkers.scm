@@ -6,6 +6,9 @@
 ;;
 
 
+(define-namespace CodeWalkers "class:org.schemeway.plugins.schemescript.dictionary.CodeWalkers")
+
+
 (define current-dictionary-entry (make-parameter #!null))
 
 
@@ -27,39 +30,13 @@
 ;;;
 
 
+;; The forms are dispatched to the code walkers in Java, see
+;; org.schemeway.plugins.schemescript.dictionary.CodeWalkers. The forms
+;; headed by a symbol without a walker are skipped there, without calling
+;; Scheme code.
+
 (define (walk-definitions resource stx-object)
-  
-  (define (recurse obj)
-    (cond ((stx-object? obj)
-           (scan-object obj))
-          ((and (list? obj)
-                (every stx-object? obj))
-           (scan-objects obj))))
-  
-  (define (scan-objects stx-objs)
-    (let loop ((stx-objs stx-objs))
-      (cond ((pair? stx-objs)
-             (scan-object (car stx-objs))
-             (loop (cdr stx-objs)))
-            (else
-             (when (not (null? stx-objs))
-               (scan-object stx-objs))))))
-  
-  (define (scan-object stx-obj)
-    (stx-match stx-obj
-      ((,rator . ,rands)
-       (if (stx-symbol? rator)
-           (let* ((sym    (stx-object-data rator))
-                  (walker (get-code-walker sym)))
-             (when walker
-               (walker stx-obj resource recurse)))
-           (begin
-             (scan-object rator)
-             (scan-objects rands))))
-      
-      (_ #t)))
-  
-  (scan-object stx-object))
+  (CodeWalkers:walk resource stx-object))
 
 
 ;;;
@@ -67,16 +44,14 @@
 ;;;
 
 
-(define *code-walkers* (make-hash-table))
-
 (define (get-code-walker symbol)
-  (hash-table-ref/default *code-walkers* symbol #f))
+  (CodeWalkers:getWalker symbol))
 
 
 (define (define-code-walker symbol-or-symbols proc)
   (let ((symbols (if (list? symbol-or-symbols) symbol-or-symbols (list symbol-or-symbols))))
     (for-each (lambda (symbol)
-                (hash-table-set! *code-walkers* symbol proc))
+                (CodeWalkers:register symbol proc))
               symbols)))
 
 
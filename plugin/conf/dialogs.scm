@@ -8,50 +8,52 @@
 ;;
 
 (define (dialog text control-builder #!optional (width 320) (height 250))
-  (let* ((parent-shell  :: <org.eclipse.swt.widgets.Shell> (default-shell))
-         (shell         (Shell:new parent-shell *DIALOG-STYLE*))
-         (result        'cancel)
-         (ok            (lambda () (set! result 'ok)     (Shell:close shell)))
-         (cancel        (lambda () (set! result 'cancel) (Shell:close shell)))
-         (client-area   (Composite:new shell 0))
-         (button-area   (Composite:new shell 0))
-         (ok-button     (new-button button-area (lambda _ (ok))
-                                    text:        "Ok"
-                                    layout-data: (grid-data style: '(right) width: *BUTTON-WIDTH*)))
-         (cancel-button (new-button button-area (lambda _ (cancel)) 
-                                    text:        "Cancel"
-                                    layout-data: (grid-data style: '(right) width: *BUTTON-WIDTH*)))
-         (is-ok?        (lambda (flag) (Button:setEnabled ok-button flag))))
+  (in-display-thread
+   (lambda ()
+     (let* ((parent-shell  :: <org.eclipse.swt.widgets.Shell> (default-shell))
+            (shell         (Shell:new parent-shell *DIALOG-STYLE*))
+            (result        'cancel)
+            (ok            (lambda () (set! result 'ok)     (Shell:close shell)))
+            (cancel        (lambda () (set! result 'cancel) (Shell:close shell)))
+            (client-area   (Composite:new shell 0))
+            (button-area   (Composite:new shell 0))
+            (ok-button     (new-button button-area (lambda _ (ok))
+                                       text:        "Ok"
+                                       layout-data: (grid-data style: '(right) width: *BUTTON-WIDTH*)))
+            (cancel-button (new-button button-area (lambda _ (cancel)) 
+                                       text:        "Cancel"
+                                       layout-data: (grid-data style: '(right) width: *BUTTON-WIDTH*)))
+            (is-ok?        (lambda (flag) (Button:setEnabled ok-button flag))))
     
-    (Shell:setImage shell (Shell:getImage parent-shell))
-    (Composite:setLayout shell       (grid-layout columns:       1 
-                                                  margin-width:  *DIALOG-MARGIN-WIDTH*
-                                                  margin-height: *DIALOG-MARGIN-HEIGHT*))
-    (Composite:setLayout button-area (grid-layout columns:       2
-                                                  margin-width:  0
-                                                  margin-height: 0
-                                                  hspacing:      *BUTTON-SPACING*))
-    (Composite:setLayoutData button-area (grid-data style: '(right)))
-    (Composite:setLayoutData client-area (grid-data style: '(fill-both)))
+       (Shell:setImage shell (Shell:getImage parent-shell))
+       (Composite:setLayout shell       (grid-layout columns:       1 
+                                                     margin-width:  *DIALOG-MARGIN-WIDTH*
+                                                     margin-height: *DIALOG-MARGIN-HEIGHT*))
+       (Composite:setLayout button-area (grid-layout columns:       2
+                                                     margin-width:  0
+                                                     margin-height: 0
+                                                     hspacing:      *BUTTON-SPACING*))
+       (Composite:setLayoutData button-area (grid-data style: '(right)))
+       (Composite:setLayoutData client-area (grid-data style: '(fill-both)))
     
-    (control-builder client-area is-ok? ok cancel)
+       (control-builder client-area is-ok? ok cancel)
     
-    (when (and width height)
-      (Shell:setBounds shell 0 0 width height)
-      (let* ((parent-rect (Shell:getBounds parent-shell))
-             (new-x       (+ (field parent-rect 'x) (max 0 (/ (- (field parent-rect 'width) width) 2))))
-             (new-y       (+ (field parent-rect 'y) (max 0 (/ (- (field parent-rect 'height) height) 2)))))
-        (Shell:setBounds shell new-x new-y width height)))
+       (when (and width height)
+         (Shell:setBounds shell 0 0 width height)
+         (let* ((parent-rect (Shell:getBounds parent-shell))
+                (new-x       (+ (field parent-rect 'x) (max 0 (/ (- (field parent-rect 'width) width) 2))))
+                (new-y       (+ (field parent-rect 'y) (max 0 (/ (- (field parent-rect 'height) height) 2)))))
+           (Shell:setBounds shell new-x new-y width height)))
   
-    (Shell:setText shell (as <String> text))
-    (Shell:open shell)
-    (let ((display (if (eq? parent-shell #!null) 
-                       (default-display)
-                       (Shell:getDisplay parent-shell))))
-      (while (not (Shell:isDisposed shell))
-        (when (not (Display:readAndDispatch display))
-          (Display:sleep display))))
-    result))
+       (Shell:setText shell (as <String> text))
+       (Shell:open shell)
+       (let ((display (if (eq? parent-shell #!null) 
+                          (default-display)
+                          (Shell:getDisplay parent-shell))))
+         (while (not (Shell:isDisposed shell))
+           (when (not (Display:readAndDispatch display))
+             (Display:sleep display))))
+       result))))
 
 
 (define (choose-from-list title label items)
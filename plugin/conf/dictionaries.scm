@@ -13,12 +13,49 @@
 
 
 
+;; A published user dictionary is never modified. Updates build a new
+;; dictionary from a copy of the current one and publish it, so that lookups
+;; from any thread see a consistent snapshot without waiting for the Scheme
+;; thread.
+
 (define *user-dictionary* (HashMap:new))
 
 
+;; Held while a new user dictionary is built from the current one, since
+;; the indexing threads and the Scheme thread both update it.
+(define *dictionary-lock* (java.lang.Object:new))
+
+
+;; The dictionary the definitions are added to. Unless parameterized, this
+;; is the published user dictionary.
 (define current-dictionary (make-parameter *user-dictionary*))
 
 
+;; Publishes a new user dictionary. Must be called with *dictionary-lock*.
+(define (publish-user-dictionary! dictionary)
+  (set! *user-dictionary* dictionary)
+  (*:setGlobal (as <gnu.mapping.ThreadLocation> (*:getLocation (as <gnu.mapping.LocationProc> current-dictionary)))
+               dictionary))
+
+
+;; Applies proc to a copy of the user dictionary, then publishes the copy.
+(define (update-user-dictionary! proc)
+  (synchronized *dictionary-lock*
+    (let ((dictionary (HashMap:new (as <java.util.Map> *user-dictionary*))))
+      (proc dictionary)
+      (publish-user-dictionary! dictionary))))
+
+
+;; Calls thunk with current-dictionary bound to a copy of the user
+;; dictionary, then publishes the copy. The entries added by thunk go into
+;; the copy, so that a whole file of definitions costs a single copy.
+(define (call-with-user-dictionary-update thunk)
+  (update-user-dictionary!
+   (lambda (dictionary)
+     (parameterize ((current-dictionary dictionary))
+       (thunk)))))
+
+
 (define (dictionary-entry name proto type #!optional (level :: <int> 2) (dictionary (current-dictionary)))
   (add-dictionary-entry name (SymbolEntry:new name proto type level) dictionary))
 
@@ -29,19 +66,34 @@
 ;;;
 
 
+;; These functions modify the dictionary they are given in place, unless it
+;; is the published user dictionary: it is then copied and the copy is
+;; published, on each call. That is only meant for single interactive
+;; edits; bulk additions, such as the loading of a file of definitions, run
+;; in call-with-user-dictionary-update, where current-dictionary is the
+;; copy being built.
 (define (add-dictionary-entry name entry #!optional (dictionary (current-dictionary)))
-  (let ((current-entries (if (HashMap:containsKey dictionary name)
-                             (HashMap:get dictionary name)
-                             '())))
-    (set-dictionary-entries! name (cons entry current-entries) dictionary)))
+  (modify-dictionary dictionary
+                     (lambda (dictionary)
+                       (let ((current-entries (if (HashMap:containsKey dictionary name)
+                                                  (HashMap:get dictionary name)
+                                                  '())))
+                         (HashMap:put dictionary name (cons entry current-entries))))))
 
 
 (define (set-dictionary-entries! name entries #!optional (dictionary (current-dictionary)))
-  (HashMap:put dictionary name entries))
+  (modify-dictionary dictionary
+                     (lambda (dictionary)
+                       (HashMap:put dictionary name entries))))
+
 
+(define (modify-dictionary dictionary proc)
+  (if (eq? dictionary *user-dictionary*)
+      (update-user-dictionary! proc)
+      (proc dictionary)))
 
-(define (get-dictionary-entries name #!optional (dictionary (current-dictionary)))
-  (synchronize-dictionary)
+
+(define (get-dictionary-entries name #!optional (dictionary (synchronize-dictionary)))
   (if (HashMap:containsKey dictionary name)
       (HashMap:get dictionary name)
       '()))
@@ -73,8 +125,7 @@
     result))
 
 
-(define (get-dictionary-entries-for-resource resource #!optional (dictionary (current-dictionary)))
-  (synchronize-dictionary)
+(define (get-dictionary-entries-for-resource resource #!optional (dictionary (synchronize-dictionary)))
   (dictionary-fold dictionary
                    (lambda (key value result)
                      (append (filter (lambda (entry) 
@@ -84,32 +135,89 @@
                    '()))
 
 
-(define (remove-dictionary-entries-for-resources resources #!optional (dictionary (current-dictionary)))
-  (let ((names (dictionary-keys dictionary)))
-    (for-each (lambda (name)
-                (let ((new-entries (filter (lambda (entry)
-                                             (not (member (SymbolEntry:getFile entry) resources)))
-                                           (get-dictionary-entries name))))
-                  (set-dictionary-entries! name new-entries)))
-              names)))
+;; The names of the user dictionary having entries of each indexed
+;; resource, so that replacing the entries of a few files does not walk the
+;; whole dictionary. Only changed with *dictionary-lock*, along with the
+;; copy of the user dictionary being built.
+(define *resource-names* (HashMap:new))
 
 
-(define (find-completions prefix #!optional (dictionary (current-dictionary)))
-  (synchronize-dictionary)
-  (dictionary-fold dictionary
-                   (lambda (key value result)
-                     (cond ((String:startsWith key prefix)
-                            (append value result))
-                           (else 
-                            result)))
-                   (method-names prefix)))
+(define (remove-dictionary-entries-for-resources resources #!optional (dictionary (current-dictionary)))
+  (if (eq? dictionary *user-dictionary*)
+      (update-user-dictionary!
+       (lambda (dictionary)
+         (remove-user-entries-for-resources resources dictionary)))
+      (for-each (lambda (name)
+                  (remove-entries-for-resources name resources dictionary))
+                (dictionary-keys dictionary))))
+
+
+;; Removes the entries of the resources from a copy of the user dictionary.
+(define (remove-user-entries-for-resources resources dictionary)
+  (for-each (lambda (resource)
+              (when (HashMap:containsKey *resource-names* resource)
+                (for-each (lambda (name)
+                            (remove-entries-for-resources name (list resource) dictionary))
+                          (HashMap:remove *resource-names* resource))))
+            resources))
+
+
+(define (remove-entries-for-resources name resources dictionary)
+  (when (HashMap:containsKey dictionary name)
+    (let ((new-entries (filter (lambda (entry)
+                                 (not (member (SymbolEntry:getFile entry) resources)))
+                               (HashMap:get dictionary name))))
+      (if (null? new-entries)
+          (HashMap:remove dictionary name)
+          (HashMap:put dictionary name new-entries)))))
+
+
+;; Called in the Scheme thread only, with all the files of an indexing pass.
+(define (replace-dictionary-entries-for-resources resources entries)
+  (update-user-dictionary!
+   (lambda (dictionary)
+     (remove-user-entries-for-resources resources dictionary)
+     (for-each (lambda (entry)
+                 (let ((name     (SymbolEntry:getName entry))
+                       (resource (SymbolEntry:getFile entry)))
+                   (add-dictionary-entry name entry dictionary)
+                   (unless (eq? resource #!null)
+                     (let ((names (if (HashMap:containsKey *resource-names* resource)
+                                      (HashMap:get *resource-names* resource)
+                                      '())))
+                       (unless (member name names)
+                         (HashMap:put *resource-names* resource (cons name names)))))))
+               entries))))
+
+
+;; The sorted index of the user dictionary names, rebuilt lazily when a new
+;; dictionary is published. Holds a pair (dictionary . index).
+(define *completion-index* #f)
+
+
+(define (completion-index dictionary)
+  (let ((cached *completion-index*))
+    (if (and cached (eq? (car cached) dictionary))
+        (cdr cached)
+        (let ((index (CompletionIndex:new dictionary)))
+          (if (eq? dictionary *user-dictionary*)
+              (set! *completion-index* (cons dictionary index)))
+          index))))
+
+
+;; Returns the entries of the names starting with prefix, best ranked first.
+;; When limit is positive, only the entries of the limit best names are
+;; returned.
+(define (find-completions prefix #!optional (limit 0) (dictionary (synchronize-dictionary)))
+  (append (CompletionIndex:getCompletions (completion-index dictionary) prefix limit)
+          (method-names prefix)))
 
 
 (define (update-dictionary-for-file (file :: <org.eclipse.core.resources.IFile>))
-  (remove-dictionary-entries-for-resources (list file))
-  (with-document-from-file file
-    (lambda (document)
-      (scan-resource file document))))
+  (let ((dictionary (cdr (collect-dictionary-entries-for-file file))))
+    (replace-dictionary-entries-for-resources
+     (list file)
+     (dictionary-fold dictionary (lambda (key value result) (append value result)) '()))))
 
 
 (define (scan-resource resource document)
@@ -122,20 +230,82 @@
       #f)))
 
 
+;; Called by the dictionary indexing jobs, possibly from several threads at
+;; once. The entries of the file are collected in a fresh dictionary, which
+;; is returned with a flag telling if the entries can be saved in the
+;; dictionary index.
+
+(define current-resource-cacheable (make-parameter #f))
+
+
+(define (resource-not-cacheable!)
+  (let ((flag (current-resource-cacheable)))
+    (if flag
+        (vector-set! flag 0 #f))))
+
+
+(define (collect-dictionary-entries-for-file (file :: <org.eclipse.core.resources.IFile>))
+  (let ((dictionary (HashMap:new))
+        (flag       (vector #t)))
+    (parameterize ((current-dictionary         dictionary)
+                   (current-resource-cacheable flag))
+      (with-document-from-file file
+        (lambda (document)
+          (scan-resource file document))))
+    (cons (vector-ref flag 0) dictionary)))
+
+
+;; Brings the user dictionary up to date and returns it.
 (define (synchronize-dictionary)
   (let ((updater (SchemeScriptPlugin:getDictionaryUpdater)))
-    (*:processPendingResources updater #t)))
+    (*:processPendingResources updater))
+  (current-dictionary))
 
 
 ;;;
 ;;;; --
-;;;; Now load the default dictionaries
+;;;; Language dictionaries
 ;;;
 
 
-(begin
-  (load-relative "languages/r5rs.scm")
-  (load-relative "languages/kawa.scm")
-  (load-relative "languages/r6rs.scm")
-  (load-relative "languages/snow.scm"))
+;; The language dictionaries are not loaded with the conf files. They are
+;; registered with the path of their file in the plugin, and the pending
+;; ones are loaded in the user dictionary by the Scheme thread once the
+;; current load is done. Until then, the lookups just don't see them.
+(define *language-dictionaries* '())
+
+
+(define (register-language-dictionary name path)
+  (synchronized *dictionary-lock*
+    (when (null? *language-dictionaries*)
+      (KawaProxy:submit (object (<java.lang.Runnable>)
+                          ((run) :: <void>
+                           (load-language-dictionaries)))))
+    (set! *language-dictionaries* (append *language-dictionaries* (list (cons name path))))))
+
+
+(define (load-language-dictionaries)
+  (unless (null? *language-dictionaries*)
+    (synchronized *dictionary-lock*
+      (let ((languages *language-dictionaries*))
+        (unless (null? languages)
+          (set! *language-dictionaries* '())
+          (call-with-user-dictionary-update
+           (lambda ()
+             (for-each load-language-dictionary languages))))))))
+
+
+(define (load-language-dictionary language)
+  (try-catch
+      (load (*:toString (SchemePlugin:findFile (Path:new (cdr language)))))
+    (exception <java.lang.Throwable>
+               (SchemePlugin:logException
+                (format #f "Can't load the dictionary of language '~a'" (car language))
+                exception))))
+
+
+(register-language-dictionary 'r5rs "conf/languages/r5rs.scm")
+(register-language-dictionary 'kawa "conf/languages/kawa.scm")
+(register-language-dictionary 'r6rs "conf/languages/r6rs.scm")
+(register-language-dictionary 'snow "conf/languages/snow.scm")
 
@@ -26,6 +26,9 @@
 (define-namespace SymbolDictionary "class:org.schemeway.plugins.schemescript.dictionary.ISymbolDictionary")
 (define-namespace ScmTextUtil      "class:org.schemeway.plugins.schemescript.editor.SchemeTextUtilities")
 (define-namespace SymbolEntry      "class:org.schemeway.plugins.schemescript.dictionary.SymbolEntry")
+(define-namespace CompletionIndex  "class:org.schemeway.plugins.schemescript.dictionary.CompletionIndex")
+(define-namespace JavaMemberCache  "class:org.schemeway.plugins.schemescript.dictionary.JavaMemberCache")
+(define-namespace JavaMemberTable  "class:org.schemeway.plugins.schemescript.dictionary.JavaMemberTable")
 (define-namespace UserDictionary   "class:org.schemeway.plugins.schemescript.dictionary.IUserDictionary")
 (define-namespace SchemePlugin     "class:org.schemeway.plugins.schemescript.SchemeScriptPlugin")
 (define-namespace SchemeIndentationContext "class:org.schemeway.plugins.schemescript.indentation.SchemeIndentationContext")
@@ -194,13 +194,14 @@
 ;;;; * define-namespace
 ;;;
 
-(define *schemescript:namespace-table* (HashMap:new))
+(define *schemescript:namespace-table* (Hashtable:new))
 
 (define (add-namespace namespace classname)
-  (HashMap:put *schemescript:namespace-table* namespace classname))
+  (resource-not-cacheable!)
+  (Hashtable:put *schemescript:namespace-table* namespace classname))
 
 (define (get-namespace-class namespace)
-  (let ((value (HashMap:get *schemescript:namespace-table* namespace)))
+  (let ((value (Hashtable:get *schemescript:namespace-table* namespace)))
     (and (not (eq? value #!null))
          value)))
 
@@ -215,19 +216,22 @@
                                '())))))
     (or (and (= (length prefix-parts) 2)
              (let* ((namespace (car prefix-parts))
-                    (classname (or (get-namespace-class namespace) (symbol->string namespace)))
-                    (members   (find-class-methods classname)))
-               (and members
-                    (map (lambda (member)
-                           (SymbolEntry:new (car member) (cadr member) 'java-member))
-                         (filter (lambda (member)
-                                   (String:startsWith (car member) prefix))
-                                 (map (lambda (member)
-                                        (list (as <String> (format #f "~a:~a" namespace (car member)))
-                                              (as <String> (cadr member))))
-                                      members))))))
+                    (classname (or (get-namespace-class namespace) (symbol->string namespace))))
+               (JavaMemberTable:getCompletions (class-member-table classname)
+                                               namespace
+                                               (cadr prefix-parts))))
         '())))
 
+;; Returns the member table of the class, from the cache of the plugin.
+;; The members of a class that is not found are cached as an empty table.
+(define (class-member-table classname)
+  (let* ((cache      (SchemePlugin:getJavaMemberCache))
+         (generation (JavaMemberCache:getGeneration cache))
+         (table      (JavaMemberCache:getTable cache classname)))
+    (if (eq? table #!null)
+        (JavaMemberCache:putTable cache classname (or (find-class-methods classname) '()) generation)
+        table)))
+
 (define-code-walker '(define-namespace)
   (lambda (stx resource recurse)
     (let ((form (stx-object->datum stx)))
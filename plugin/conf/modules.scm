@@ -13,7 +13,7 @@
 ;;;
 
 
-(define *module-registry* (HashMap:new))
+(define *module-registry* (Hashtable:new))
 
 
 ;;;
@@ -23,11 +23,12 @@
 
 
 (define (add-to-module-registry! resource modulename)
-  (HashMap:put *module-registry* resource modulename))
+  (resource-not-cacheable!)
+  (Hashtable:put *module-registry* resource modulename))
 
 
 (define (find-module-name resource)
-  (let ((value (HashMap:get *module-registry* resource)))
+  (let ((value (Hashtable:get *module-registry* resource)))
     (if (eq? value #!null)
         #f
         value)))
@@ -10,12 +10,19 @@
 (define-namespace SchemeIndentationManager <org.schemeway.plugins.schemescript.indentation.SchemeIndentationManager>)
 (define-namespace IndentationRule <org.schemeway.plugins.schemescript.indentation.IndentationRule>)
 (define-namespace KeywordManager <org.schemeway.plugins.schemescript.parser.KeywordManager>)
+(define-namespace KawaProxy <org.schemeway.plugins.schemescript.interpreter.KawaProxy>)
 
 
 (define (schemescript-plugin)
   (SchemeScriptPlugin:getDefault))
 
 
+;; Evaluations run in the Scheme thread. Code that creates or updates widgets
+;; must run in the display thread.
+(define (in-display-thread thunk)
+  (KawaProxy:applyInDisplayThread thunk))
+
+
 (define (schemescript-preference-store)
   (SchemeScriptPlugin:getPreferenceStore (schemescript-plugin)))
 
@@ -26,15 +26,19 @@
 ;;        the parent Composite. The function must return a SWT Control object.
 ;; @return the control inserted in the Kawa Scratchpad View.
 (define (add-scratchpad-view name factory)
-  (let* ((parent  (KawaScratchpadView:getControl))
-         (control (factory parent)))
-    (KawaScratchpadView:addView name control)
-    control))
+  (in-display-thread
+   (lambda ()
+     (let* ((parent  (KawaScratchpadView:getControl))
+            (control (factory parent)))
+       (KawaScratchpadView:addView name control)
+       control))))
 
 
 ;; @function (show-scratchpad)
 ;;   Displays the Kawa Scratchpad View
 (define (show-scratchpad)
-  (let ((control (KawaScratchpadView:getControl)))
-    (Control:setFocus control)))
+  (in-display-thread
+   (lambda ()
+     (let ((control (KawaScratchpadView:getControl)))
+       (Control:setFocus control)))))
 
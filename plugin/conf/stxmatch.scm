@@ -23,53 +23,45 @@
        (symbol? (caddr pattern))))
 
 
+;; Matches stx-obj against pattern, interpreting the pattern. Returns the
+;; result of applying proc to the values of the pattern variables, or #f if
+;; the object does not match. The stx-match macro compiles its patterns
+;; instead, see compile-stx-match-clause.
 (define (stx-match-pattern stx-obj pattern proc)
-  (define variable-values '())
-  
-  (define (add-variable-value val)
-    (set! variable-values (cons val variable-values)))
-  
-  (define (fail) (throw 'no-match))
-  
-  (define (match-pairs stx-objs pattern)
+  (define (match-pairs stx-objs pattern bindings)
     (cond ((unquote-pattern? pattern)
-           (add-variable-value stx-objs))
+           (cons stx-objs bindings))
           ((and (pair? stx-objs) (pair? pattern))
-           (match-pattern (car stx-objs) (car pattern))
-           (match-pairs (cdr stx-objs) (cdr pattern)))
+           (let ((bindings (match-pattern (car stx-objs) (car pattern) bindings)))
+             (and bindings
+                  (match-pairs (cdr stx-objs) (cdr pattern) bindings))))
           ((and (null? stx-objs) (null? pattern))
-           #t)
+           bindings)
           (else
-           (fail))))
+           #f)))
   
- 
-  (define (match-pattern stx-obj pattern)
+  ;; Returns the bindings of the variables matched so far, or #f
+  (define (match-pattern stx-obj pattern bindings)
     (cond ((unquote-pattern? pattern)
-           (add-variable-value stx-obj))
+           (cons stx-obj bindings))
           
           ((pair? pattern)
-           (if (stx-list? stx-obj)
-               (match-pairs (stx-object-data stx-obj) pattern)
-               (fail)))
+           (and (stx-list? stx-obj)
+                (match-pairs (stx-object-data stx-obj) pattern bindings)))
           
           ((eq? '_ pattern)
-           #t)
+           bindings)
           
           ((and (symbol? pattern) (stx-symbol? stx-obj))
-           (or (equal? pattern (stx-object-data stx-obj))
-               (fail)))
+           (and (equal? pattern (stx-object-data stx-obj))
+                bindings))
           
           (else
-           (fail)
-;;           (error (format #f "invalid pattern: ~S" pattern))
-           )))
+           #f)))
   
-  (catch 'no-match
-    (lambda ()
-      (match-pattern stx-obj pattern)
-      (apply proc (reverse variable-values)))
-    (lambda (key . vals)
-      #f)))
+  (let ((bindings (match-pattern stx-obj pattern '())))
+    (and bindings
+         (apply proc (reverse bindings)))))
 
 
 (define (extract-pattern-variables pattern)
@@ -96,14 +88,70 @@
   (reverse variables))
 
 
+;; Returns the code matching the syntax object held by the variable obj-var
+;; against pattern. When the object matches, the code evaluates body with the
+;; pattern variables bound to the matched objects; otherwise it returns #f.
+;; The tests are generated once, when stx-match is expanded, so matching does
+;; not go over the pattern again nor unwind the stack on a mismatch.
+(define (compile-stx-match-clause obj-var pattern body)
+  ;; the pattern variables are bound to temporaries until the whole pattern
+  ;; has matched, so that they do not shadow the procedures of the tests
+  (define variables (extract-pattern-variables pattern))
+  (define temporaries (map (lambda (variable) (gentemp)) variables))
+  
+  (define (temporary variable)
+    (let loop ((variables variables) (temporaries temporaries))
+      (if (eq? (car variables) variable)
+          (car temporaries)
+          (loop (cdr variables) (cdr temporaries)))))
+  
+  (define (compile-pairs objs-var pattern success)
+    (cond ((unquote-pattern? pattern)
+           `(let ((,(temporary (cadr pattern)) ,objs-var))
+              ,success))
+          ((pair? pattern)
+           (let ((head-var (gentemp))
+                 (tail-var (gentemp)))
+             `(if (pair? ,objs-var)
+                  (let ((,head-var (car ,objs-var))
+                        (,tail-var (cdr ,objs-var)))
+                    ,(compile-pattern head-var (car pattern)
+                                      (compile-pairs tail-var (cdr pattern) success)))
+                  #f)))
+          ((null? pattern)
+           `(if (null? ,objs-var) ,success #f))
+          (else
+           #f)))
+  
+  (define (compile-pattern obj-var pattern success)
+    (cond ((unquote-pattern? pattern)
+           `(let ((,(temporary (cadr pattern)) ,obj-var))
+              ,success))
+          ((pair? pattern)
+           (let ((objs-var (gentemp)))
+             `(if (stx-list? ,obj-var)
+                  (let ((,objs-var (stx-object-data ,obj-var)))
+                    ,(compile-pairs objs-var pattern success))
+                  #f)))
+          ((eq? '_ pattern)
+           success)
+          ((symbol? pattern)
+           `(if (and (stx-symbol? ,obj-var)
+                     (equal? ',pattern (stx-object-data ,obj-var)))
+                ,success
+                #f))
+          (else
+           #f)))
+  
+  (compile-pattern obj-var
+                   pattern
+                   `((lambda ,variables ,@body) ,@temporaries)))
+
+
 (define-macro (stx-match obj . clauses)
   (let ((obj-var (gentemp)))
     `(let ((,obj-var ,obj))
        (or ,@(map (lambda (clause)
-                    `(stx-match-pattern
-                      ,obj-var
-                      ',(car clause)
-                      (lambda ,(extract-pattern-variables (car clause))
-                        ,@(cdr clause))))
+                    (compile-stx-match-clause obj-var (car clause) (cdr clause)))
                   clauses)))))
 
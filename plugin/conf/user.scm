@@ -16,26 +16,31 @@
 (require 'srfi-69)
 
 ;; -- DO NOT REMOVE THE FOLLOWING LINES --
-(load-relative "macros.scm")
-(load-relative "util.scm")
-(load-relative "plugin.scm")
-(load-relative "foreign.scm")
-(load-relative "bundles.scm")
-(load-relative "constants.scm")
-(load-relative "buffer.scm")
-(load-relative "commands.scm")
-(load-relative "widgets.scm")
-(load-relative "dialogs.scm")
-(load-relative "namespaces.scm")
-(load-relative "modules.scm")
-(load-relative "markers.scm")
-(load-relative "scratchpad.scm")
-(load-relative "reader.scm")
-(load-relative "stxmatch.scm")
-(load-relative "codewalkers.scm")
-(load-relative "forms.scm")
-(load-relative "refactoring.scm")
-(load-relative "dictionaries.scm")
+;; The modules are loaded from the classes compiled by the build, unless
+;; their source was changed. See compile-conf.scm.
+(define (load-conf-module filename)
+  (invoke-static <org.schemeway.plugins.schemescript.interpreter.ConfModules> 'load filename))
+
+(load-conf-module "macros.scm")
+(load-conf-module "util.scm")
+(load-conf-module "plugin.scm")
+(load-conf-module "foreign.scm")
+(load-conf-module "bundles.scm")
+(load-conf-module "constants.scm")
+(load-conf-module "buffer.scm")
+(load-conf-module "commands.scm")
+(load-conf-module "widgets.scm")
+(load-conf-module "dialogs.scm")
+(load-conf-module "namespaces.scm")
+(load-conf-module "modules.scm")
+(load-conf-module "markers.scm")
+(load-conf-module "scratchpad.scm")
+(load-conf-module "reader.scm")
+(load-conf-module "stxmatch.scm")
+(load-conf-module "codewalkers.scm")
+(load-conf-module "forms.scm")
+(load-conf-module "refactoring.scm")
+(load-conf-module "dictionaries.scm")
 
 
 
@@ -45,7 +50,7 @@
 ;;;
 
 ;; uncomment the next line to enable Arc support
-;(load-relative "languages/arc.scm")
+;(register-language-dictionary 'arc "conf/languages/arc.scm")
 
 ;; uncomment the next line to enable Clojure support
-;(load-relative "languages/clojure.scm")
\ No newline at end of file
+;(register-language-dictionary 'clojure "conf/languages/clojure.scm")
\ No newline at end of file
@@ -9,9 +9,11 @@
 
 
 (define (default-shell)
-  (try-catch 
-      (IWorkbenchWindow:getShell (IWorkbench:getActiveWorkbenchWindow (PlatformUI:getWorkbench)))
-    (exception <java.lang.Throwable> #!null)))
+  (in-display-thread
+   (lambda ()
+     (try-catch 
+         (IWorkbenchWindow:getShell (IWorkbench:getActiveWorkbenchWindow (PlatformUI:getWorkbench)))
+       (exception <java.lang.Throwable> #!null)))))
 
 
 (define (default-display)
@@ -21,8 +23,10 @@
 
 
 (define (message-box title message)
-  (let ((shell (default-shell)))
-    (MessageDialog:openInformation shell title message)))
+  (in-display-thread
+   (lambda ()
+     (let ((shell (default-shell)))
+       (MessageDialog:openInformation shell title message)))))
 
 
 ;;;
@@ -27,6 +27,7 @@ import org.schemeway.plugins.schemescript.preferences.*;
  */
 public class SchemeScriptPlugin extends AbstractUIPlugin {
     private static final String CONF_USER_SCM = "conf/user.scm";
+    private static final String SCHEME_EXTENSIONS = "scm,ss,sch,brl,krl,arc";
     public final static String PLUGIN_NS = "org.schemeway.plugins.schemescript";
 
     public static final String INTERNAL_INTERPRETER_NAME = "internal";
@@ -36,6 +37,8 @@ public class SchemeScriptPlugin extends AbstractUIPlugin {
     private static SchemeScriptPlugin plugin;
 	private static SymbolReferencesManager sReferencesManager;
 	private static DictionaryUpdater sDictionaryUpdater;
+	private static SymbolResolver sSymbolResolver;
+	private static JavaMemberCache sJavaMemberCache;
     //Resource bundle.
     private ResourceBundle resourceBundle;
 
@@ -98,10 +101,19 @@ public class SchemeScriptPlugin extends AbstractUIPlugin {
      * This method is called when the plug-in is stopped
      */
     public void stop(BundleContext context) throws Exception {
-        super.stop(context);
         if (sDictionaryUpdater != null) {
         	sDictionaryUpdater.dispose();
         }
+        if (sReferencesManager != null) {
+        	sReferencesManager.dispose();
+        }
+        if (sSymbolResolver != null) {
+        	sSymbolResolver.dispose();
+        }
+        if (sJavaMemberCache != null) {
+        	sJavaMemberCache.dispose();
+        }
+        super.stop(context);
         if (propertyChangedListener != null) {
             getPreferenceStore().removePropertyChangeListener(propertyChangedListener);
         }
@@ -183,16 +195,31 @@ public class SchemeScriptPlugin extends AbstractUIPlugin {
         return types[0];
     }
   
-	public static SymbolReferencesManager getReferencesManager() {
+	public static synchronized SymbolReferencesManager getReferencesManager() {
 		if (sReferencesManager == null) {
-			sReferencesManager = new SymbolReferencesManager();
+			sReferencesManager = SymbolReferencesManager.createInstance(SCHEME_EXTENSIONS);
+			ResourcesPlugin.getWorkspace().addResourceChangeListener(sReferencesManager, IResourceChangeEvent.POST_CHANGE);
 		}
 		return sReferencesManager;
 	}
 	
+	public static synchronized SymbolResolver getSymbolResolver() {
+		if (sSymbolResolver == null) {
+			sSymbolResolver = SymbolResolver.createInstance();
+		}
+		return sSymbolResolver;
+	}
+	
+	public static synchronized JavaMemberCache getJavaMemberCache() {
+		if (sJavaMemberCache == null) {
+			sJavaMemberCache = JavaMemberCache.createInstance();
+		}
+		return sJavaMemberCache;
+	}
+	
 	public static DictionaryUpdater getDictionaryUpdater() {
 		if (sDictionaryUpdater == null) {
-			sDictionaryUpdater = DictionaryUpdater.createInstance("scm,ss,sch,brl,krl,arc");
+			sDictionaryUpdater = DictionaryUpdater.createInstance(SCHEME_EXTENSIONS);
 			ResourcesPlugin.getWorkspace().addResourceChangeListener(sDictionaryUpdater, IResourceChangeEvent.POST_CHANGE);
 		}
 		return sDictionaryUpdater;
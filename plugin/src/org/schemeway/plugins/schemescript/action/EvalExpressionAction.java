@@ -39,13 +39,7 @@ public class EvalExpressionAction extends SchemeAction {
             textToEval = editor.getText(selection.getOffset(), selection.getLength());
         }
         else if (mMoveToTop) {
-            int start = editor.getPoint();
-            int end = start;
-            while (explorer.upSexpression(start)) {
-                start = explorer.getSexpStart();
-                end = explorer.getSexpEnd();
-            }
-            if (start != end && explorer.forwardSexpression(start))
+            if (explorer.topLevelSexpression(editor.getPoint()))
                 textToEval = explorer.getText();
         }
         else {
@@ -61,8 +61,12 @@ public class FormatAction extends SchemeAction {
                                    SchemeEditor editor,
                                    int pointOffset) {
         try {
+            // the region is indented in a single pass over its tokens
+            SchemeRegionIndenter indenter = new SchemeRegionIndenter(document,
+                                                                     context,
+                                                                     document.getLineOffset(firstLine));
             for (int lineIndex = firstLine; lineIndex <= lastLine; lineIndex++) {
-                indentLine(document, lineIndex, context, editor, pointOffset);
+                indentLine(document, lineIndex, context, indenter, editor, pointOffset);
             }
         } catch (BadLocationException exception) {
         }
@@ -73,6 +77,15 @@ public class FormatAction extends SchemeAction {
                                   SchemeIndentationContext context,
                                   SchemeEditor editor,
                                   int pointOffset) throws BadLocationException {
+        indentLine(document, lineNo, context, null, editor, pointOffset);
+    }
+
+    private static void indentLine(IDocument document,
+                                   int lineNo,
+                                   SchemeIndentationContext context,
+                                   SchemeRegionIndenter indenter,
+                                   SchemeEditor editor,
+                                   int pointOffset) throws BadLocationException {
         IRegion lineInfo = document.getLineInformation(lineNo);
         int lineOffset = lineInfo.getOffset();
         int lineEnd = lineInfo.getLength() + lineOffset;
@@ -95,7 +108,7 @@ public class FormatAction extends SchemeAction {
                         newIndentation = 0;
                     } else if (firstTokenPartition.getLength() >= 2
                             && document.get(firstTokenPartition.getOffset(), 2).equals(";;")) {
-                        newIndentation = SchemeIndentationStrategy.findIndentation(context);
+                        newIndentation = findIndentation(context, indenter);
                     } else if (firstTokenPartition.getLength() >= 2
                             && document.get(firstTokenPartition.getOffset(), 2).equals("#|")) {
                         return;
@@ -110,12 +123,12 @@ public class FormatAction extends SchemeAction {
                                     && document.getChar(previousLineLastPartition.getOffset()) == ';') {
                                 newIndentation = previousLineLastPartition.getOffset() - previousLineInfo.getOffset();
                             } else if (!CommentPreferences.isUsingEmacsBehavior()) {
-                                newIndentation = SchemeIndentationStrategy.findIndentation(context);
+                                newIndentation = findIndentation(context, indenter);
                             }
                         }
                     }
                 } else {
-                    newIndentation = SchemeIndentationStrategy.findIndentation(context);
+                    newIndentation = findIndentation(context, indenter);
                 }
             }
 
@@ -135,6 +148,14 @@ public class FormatAction extends SchemeAction {
         }
     }
 
+    private static int findIndentation(SchemeIndentationContext context, SchemeRegionIndenter indenter)
+            throws BadLocationException {
+        if (indenter == null)
+            return SchemeIndentationStrategy.findIndentation(context);
+        else
+            return indenter.findIndentation(context.getOffset());
+    }
+
     private static void removeExtraWhitespace(IDocument document, int lineLastChar) throws BadLocationException {
         ITypedRegion partition;
 
@@ -51,7 +51,7 @@ public final class SchemeProcedureAction extends Action implements IWorkbenchWin
     }
     
     public void run(IAction action) {
-        Procedure proc = getProcedure(mProcedureName);
+        Procedure proc = toProcedure(KawaProxy.getForCommand(mProcedureName));
         
         if (proc != null && proc != mCachedProcedure)
             mCachedProcedure = proc;
@@ -71,7 +71,11 @@ public final class SchemeProcedureAction extends Action implements IWorkbenchWin
     
     private Procedure getProcedure(final String name)
     {
-    	Object object = KawaProxy.get(name);
+    	return toProcedure(KawaProxy.get(name));
+    }
+
+    private static Procedure toProcedure(Object object)
+    {
     	if (object == null || !(object instanceof Procedure))
     		return null;
     	else
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.dictionary;
+
+import gnu.lists.*;
+import gnu.mapping.*;
+
+import java.util.*;
+
+import org.schemeway.plugins.schemescript.parser.*;
+
+/**
+ * The code walkers that find the definitions of a file in its syntax
+ * objects. A walker is a Scheme procedure registered for the symbols heading
+ * the forms it handles (<code>define</code>, <code>define-syntax</code>,
+ * <code>library</code>...). It is called with the form, the resource and a
+ * procedure to walk the subforms that may hold definitions.
+ * <p>
+ * The forms are dispatched here, so that the forms without a walker are
+ * skipped without calling Scheme code. A list headed by a symbol without a
+ * walker is not walked into, while the elements of a list headed by anything
+ * else are walked.
+ *
+ * @author SchemeWay Project.
+ */
+public final class CodeWalkers {
+	// String -> Procedure, replaced on each registration so that the
+	// indexing threads read it without locking
+	private static volatile Map sWalkers = new HashMap();
+
+	private CodeWalkers() {
+	}
+
+	public static synchronized void register(String symbol, Procedure walker) {
+		Map walkers = new HashMap(sWalkers);
+		walkers.put(symbol, walker);
+		sWalkers = walkers;
+	}
+
+	/**
+	 * Returns the walker of the forms headed by <code>symbol</code>, or
+	 * <code>#f</code>.
+	 */
+	public static Object getWalker(String symbol) {
+		Procedure walker = (Procedure) sWalkers.get(symbol);
+		return (walker == null) ? (Object) Boolean.FALSE : walker;
+	}
+
+	/**
+	 * Walks the syntax object read from <code>resource</code>, calling the
+	 * walkers of the forms found.
+	 */
+	public static void walk(Object resource, Object object) throws Throwable {
+		new Walk(resource).walkObject(object);
+	}
+
+	/*
+	 * A walk of the forms of a resource. It is also the procedure given to
+	 * the walkers to walk a subform or a list of subforms.
+	 */
+	private static final class Walk extends Procedure1 {
+		private final Object mResource;
+		private final Map mWalkers = sWalkers;
+
+		Walk(Object resource) {
+			mResource = resource;
+		}
+
+		public Object apply1(Object object) throws Throwable {
+			if (object instanceof SyntaxObject)
+				walkObject(object);
+			else if (isSyntaxList(object))
+				walkObjects(object);
+			return Boolean.TRUE;
+		}
+
+		void walkObject(Object object) throws Throwable {
+			if (!(object instanceof SyntaxObject))
+				return;
+			SyntaxObject form = (SyntaxObject) object;
+			if (!SyntaxObject.LIST.equals(form.getType()) || !(form.getData() instanceof Pair))
+				return;
+
+			Pair elements = (Pair) form.getData();
+			Object head = elements.car;
+			if (head instanceof SyntaxObject && SyntaxObject.SYMBOL.equals(((SyntaxObject) head).getType())) {
+				Procedure walker = (Procedure) mWalkers.get(((SyntaxObject) head).getData());
+				if (walker != null)
+					walker.apply3(form, mResource, this);
+			}
+			else {
+				walkObject(head);
+				walkObjects(elements.cdr);
+			}
+		}
+
+		void walkObjects(Object objects) throws Throwable {
+			while (objects instanceof Pair) {
+				Pair pair = (Pair) objects;
+				walkObject(pair.car);
+				objects = pair.cdr;
+			}
+			if (objects != LList.Empty)
+				walkObject(objects);
+		}
+
+		// true if the object is a proper list of syntax objects
+		private static boolean isSyntaxList(Object object) {
+			while (object instanceof Pair) {
+				Pair pair = (Pair) object;
+				if (!(pair.car instanceof SyntaxObject))
+					return false;
+				object = pair.cdr;
+			}
+			return object == LList.Empty;
+		}
+	}
+}
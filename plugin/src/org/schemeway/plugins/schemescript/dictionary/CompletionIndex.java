@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.dictionary;
+
+import gnu.lists.*;
+
+import java.util.*;
+
+/**
+ * A read-only index of the names of a dictionary, sorted so that the names
+ * starting with a given prefix form a contiguous range found by binary
+ * search. Looking up the completions of a prefix costs O(log n + m log k),
+ * where m is the number of matching names and k the number of names
+ * returned, whatever the size of the dictionary.
+ * <p>
+ * The index is a snapshot: it must be rebuilt when the dictionary changes.
+ *
+ * @author SchemeWay Project.
+ */
+public final class CompletionIndex {
+	private final String[] mNames;
+	private final LList[] mEntries;
+	// the best (lowest) priority of the entries of each name
+	private final int[] mPriorities;
+
+	/**
+	 * Builds the index of a dictionary mapping names to Scheme lists of
+	 * {@link SymbolEntry}.
+	 */
+	public CompletionIndex(Map dictionary) {
+		List names = new ArrayList(dictionary.size());
+		for (Iterator iterator = dictionary.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry mapEntry = (Map.Entry) iterator.next();
+			if (mapEntry.getValue() instanceof Pair)
+				names.add(mapEntry.getKey().toString());
+		}
+		mNames = (String[]) names.toArray(new String[names.size()]);
+		Arrays.sort(mNames);
+
+		mEntries = new LList[mNames.length];
+		mPriorities = new int[mNames.length];
+		for (int i = 0; i < mNames.length; i++) {
+			LList entries = (LList) dictionary.get(mNames[i]);
+			mEntries[i] = entries;
+			mPriorities[i] = getBestPriority(entries);
+		}
+	}
+
+	private static int getBestPriority(LList entries) {
+		int priority = Integer.MAX_VALUE;
+		while (entries instanceof Pair) {
+			Pair pair = (Pair) entries;
+			if (pair.car instanceof SymbolEntry)
+				priority = Math.min(priority, ((SymbolEntry) pair.car).getPriority());
+			entries = (LList) pair.cdr;
+		}
+		return priority;
+	}
+
+	public int size() {
+		return mNames.length;
+	}
+
+	/**
+	 * Returns the entries of the names starting with <code>prefix</code>.
+	 * When <code>limit</code> is positive, only the entries of the
+	 * <code>limit</code> best names are returned. Names are ranked by the
+	 * priority of their best entry, then alphabetically.
+	 */
+	public LList getCompletions(String prefix, int limit) {
+		int start = lowerBound(prefix);
+		if (start == mNames.length || !mNames[start].startsWith(prefix))
+			return LList.Empty;
+		int end = upperBound(prefix, start);
+
+		int[] selection = selectNames(start, end, limit);
+		LList result = LList.Empty;
+		for (int i = selection.length - 1; i >= 0; i--) {
+			result = prepend(mEntries[selection[i]], result);
+		}
+		return result;
+	}
+
+	// Returns the index of the first name not smaller than prefix.
+	private int lowerBound(String prefix) {
+		int low = 0;
+		int high = mNames.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mNames[middle].compareTo(prefix) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	// Returns the index following the last name starting with prefix, given
+	// that the name at from starts with prefix.
+	private int upperBound(String prefix, int from) {
+		int low = from + 1;
+		int high = mNames.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mNames[middle].startsWith(prefix))
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	// Returns the indices of the best names in [start, end), ranked. The
+	// best names are kept in a heap of limit elements, worst at the root,
+	// which is then sorted in place.
+	private int[] selectNames(int start, int end, int limit) {
+		int count = end - start;
+		if (limit <= 0 || limit > count)
+			limit = count;
+
+		int[] heap = new int[limit];
+		int size = 0;
+		for (int i = start; i < end; i++) {
+			if (size < limit) {
+				heap[size] = i;
+				siftUp(heap, size++);
+			}
+			else if (isBetter(i, heap[0])) {
+				heap[0] = i;
+				siftDown(heap, 0, size);
+			}
+		}
+
+		for (int last = size - 1; last > 0; last--) {
+			int worst = heap[0];
+			heap[0] = heap[last];
+			heap[last] = worst;
+			siftDown(heap, 0, last);
+		}
+		return heap;
+	}
+
+	// true if the name at i ranks before the name at j: a better priority,
+	// or the same priority and alphabetically first
+	private boolean isBetter(int i, int j) {
+		return mPriorities[i] < mPriorities[j] || (mPriorities[i] == mPriorities[j] && i < j);
+	}
+
+	private void siftUp(int[] heap, int position) {
+		int element = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!isBetter(heap[parent], element))
+				break;
+			heap[position] = heap[parent];
+			position = parent;
+		}
+		heap[position] = element;
+	}
+
+	private void siftDown(int[] heap, int position, int size) {
+		int element = heap[position];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && isBetter(heap[child], heap[child + 1]))
+				child++;
+			if (!isBetter(element, heap[child]))
+				break;
+			heap[position] = heap[child];
+			position = child;
+		}
+		heap[position] = element;
+	}
+
+	private static LList prepend(LList entries, LList tail) {
+		if (!(entries instanceof Pair))
+			return tail;
+		Pair pair = (Pair) entries;
+		return new Pair(pair.car, prepend((LList) pair.cdr, tail));
+	}
+}
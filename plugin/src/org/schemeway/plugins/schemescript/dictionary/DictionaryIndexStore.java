@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.dictionary;
+
+import java.io.*;
+import java.util.*;
+
+import org.eclipse.core.resources.*;
+import org.eclipse.core.runtime.*;
+import org.schemeway.plugins.schemescript.*;
+
+/**
+ * Saves and restores the user dictionary entries of the workspace files, so
+ * that only the files modified since the last session have to be scanned
+ * again. Each file is recorded with the modification stamp it had when it was
+ * scanned.
+ *
+ * @author SchemeWay Project.
+ */
+final class DictionaryIndexStore {
+	private static final String INDEX_FILENAME = "dictionary.index";
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The entries of a file, as found by the code walkers.
+	 */
+	static final class IndexedFile {
+		final long stamp;
+		final SymbolEntry[] entries;
+
+		IndexedFile(long stamp, SymbolEntry[] entries) {
+			this.stamp = stamp;
+			this.entries = entries;
+		}
+	}
+
+	private DictionaryIndexStore() {
+		// Ensure that the class will not be instantiated
+	}
+
+	/**
+	 * Returns a map from workspace files to their saved {@link IndexedFile},
+	 * or an empty map if there is no usable saved index.
+	 */
+	static Map load() {
+		Map files = new HashMap();
+		File indexFile = getIndexFile();
+		if (indexFile == null || !indexFile.exists())
+			return files;
+
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (input.readInt() != FORMAT_VERSION || !getPluginVersion().equals(input.readUTF()))
+				return files;
+
+			IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+			int fileCount = input.readInt();
+			for (int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+				IFile file = root.getFile(new Path(input.readUTF()));
+				long stamp = input.readLong();
+				SymbolEntry[] entries = new SymbolEntry[input.readInt()];
+				int[] parents = new int[entries.length];
+				for (int entryIndex = 0; entryIndex < entries.length; entryIndex++) {
+					String name = input.readUTF();
+					String description = readOptionalString(input);
+					String category = readOptionalString(input);
+					int offset = input.readInt();
+					int length = input.readInt();
+					int priority = input.readInt();
+					parents[entryIndex] = input.readInt();
+					entries[entryIndex] = new SymbolEntry(name, description, category, file, offset, length, priority);
+				}
+				for (int entryIndex = 0; entryIndex < entries.length; entryIndex++) {
+					int parent = parents[entryIndex];
+					if (parent >= 0 && parent < entries.length)
+						entries[entryIndex].setParent(entries[parent]);
+				}
+				files.put(file, new IndexedFile(stamp, entries));
+			}
+		}
+		catch (IOException exception) {
+			SchemeScriptPlugin.logException("Unable to read the dictionary index", exception);
+			files.clear();
+		}
+		finally {
+			close(input);
+		}
+		return files;
+	}
+
+	/**
+	 * Saves the given map from workspace files to {@link IndexedFile}.
+	 */
+	static void save(Map files) {
+		File indexFile = getIndexFile();
+		if (indexFile == null)
+			return;
+
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+			output.writeInt(FORMAT_VERSION);
+			output.writeUTF(getPluginVersion());
+			output.writeInt(files.size());
+			for (Iterator iterator = files.entrySet().iterator(); iterator.hasNext();) {
+				Map.Entry mapEntry = (Map.Entry) iterator.next();
+				IFile file = (IFile) mapEntry.getKey();
+				IndexedFile indexedFile = (IndexedFile) mapEntry.getValue();
+				SymbolEntry[] entries = indexedFile.entries;
+
+				output.writeUTF(file.getFullPath().toString());
+				output.writeLong(indexedFile.stamp);
+				output.writeInt(entries.length);
+				Map positions = new IdentityHashMap();
+				for (int entryIndex = 0; entryIndex < entries.length; entryIndex++) {
+					positions.put(entries[entryIndex], new Integer(entryIndex));
+				}
+				for (int entryIndex = 0; entryIndex < entries.length; entryIndex++) {
+					SymbolEntry entry = entries[entryIndex];
+					Integer parent = (Integer) positions.get(entry.getParent());
+
+					output.writeUTF(entry.getName());
+					writeOptionalString(output, entry.getDescription());
+					writeOptionalString(output, entry.getCategory());
+					output.writeInt(entry.getOffset());
+					output.writeInt(entry.getLength());
+					output.writeInt(entry.getPriority());
+					output.writeInt(parent == null ? -1 : parent.intValue());
+				}
+			}
+		}
+		catch (IOException exception) {
+			SchemeScriptPlugin.logException("Unable to save the dictionary index", exception);
+		}
+		finally {
+			close(output);
+		}
+	}
+
+	private static File getIndexFile() {
+		SchemeScriptPlugin plugin = SchemeScriptPlugin.getDefault();
+		if (plugin == null)
+			return null;
+		return plugin.getStateLocation().append(INDEX_FILENAME).toFile();
+	}
+
+	// The code walkers come with the plugin, so the index is discarded when
+	// the plugin is updated.
+	private static String getPluginVersion() {
+		Object version = SchemeScriptPlugin.getDefault().getBundle().getHeaders().get("Bundle-Version");
+		return version == null ? "" : version.toString();
+	}
+
+	private static String readOptionalString(DataInputStream input) throws IOException {
+		if (input.readBoolean())
+			return input.readUTF();
+		return null;
+	}
+
+	private static void writeOptionalString(DataOutputStream output, String string) throws IOException {
+		output.writeBoolean(string != null);
+		if (string != null)
+			output.writeUTF(string);
+	}
+
+	private static void close(InputStream stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			}
+			catch (IOException exception) {
+				// ignore
+			}
+		}
+	}
+
+	private static void close(OutputStream stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			}
+			catch (IOException exception) {
+				// ignore
+			}
+		}
+	}
+}
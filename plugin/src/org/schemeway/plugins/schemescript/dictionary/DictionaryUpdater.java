@@ -5,39 +5,76 @@
  */
 package org.schemeway.plugins.schemescript.dictionary;
 
+import gnu.lists.*;
 import gnu.mapping.*;
 
-import java.lang.reflect.*;
 import java.util.*;
 
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
-import org.eclipse.jface.operation.*;
-import org.eclipse.ui.*;
+import org.eclipse.core.runtime.jobs.*;
 import org.schemeway.plugins.schemescript.*;
 import org.schemeway.plugins.schemescript.interpreter.*;
 
 /**
  * User dictionary. Holds all the symbols defined by user code. All Scheme files
  * in all open projects are considered.
+ * <p>
+ * Files are scanned in the background by a small pool of indexing jobs. Each
+ * job runs the code walkers on a file with a private dictionary, and the
+ * results of an indexing pass are merged into the user dictionary at once,
+ * in the Scheme thread, when the last running job is done. The entries are
+ * saved in the plugin state location when the plugin stops, and restored at
+ * startup for the files whose modification stamp did not change.
  * 
- * TODO Remove entries from removed resources (like when closing a project) TODO
- * Use a better technique to disable dictionaries...
+ * TODO Use a better technique to disable dictionaries...
  */
 public class DictionaryUpdater implements IResourceChangeListener {
+	private static final String ERROR_MARKER_ID = "org.schemeway.plugins.schemescript.error";
+	private static final int MAXIMUM_WORKERS = 4;
+
 	private List mSchemeExtensions;
 
 	private List mPendingResources = Collections.synchronizedList(new LinkedList());
-	private Hashtable mEntries = new Hashtable();
+	// the number of files taken from mPendingResources, which orders the
+	// scans of a file queued again while it was being scanned
+	private int mScanCount = 0;
+
+	// IFile -> DictionaryIndexStore.IndexedFile, for the files that can be
+	// restored in the next session
+	private Map mIndexedFiles = new HashMap();
+	// IFile -> DictionaryIndexStore.IndexedFile, for the files restored from
+	// the saved index and not merged yet
+	private Map mRestoredFiles = new HashMap();
+	// ScanResult objects waiting to be merged in the dictionary
+	private List mScanResults = new ArrayList();
+	// the indexing jobs running, guarded by mScanResults
+	private int mRunningWorkers = 0;
+
+	private IndexingJob[] mWorkers;
 
 	private DictionaryUpdater(String extensions) {
 		initializeExtensions(extensions);
+		int workerCount = Math.max(1, Math.min(MAXIMUM_WORKERS, Runtime.getRuntime().availableProcessors()));
+		mWorkers = new IndexingJob[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			mWorkers[i] = new IndexingJob();
+		}
 	}
 
 	public void dispose() {
 		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
-		mEntries = null;
-		mPendingResources = null;
+		Job.getJobManager().cancel(this);
+		try {
+			Job.getJobManager().join(this, null);
+		}
+		catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (mIndexedFiles) {
+			DictionaryIndexStore.save(mIndexedFiles);
+		}
+		mPendingResources.clear();
 	}
 
 	public static DictionaryUpdater createInstance(String extensions) {
@@ -58,32 +95,39 @@ public class DictionaryUpdater implements IResourceChangeListener {
 		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
 		final IProject[] projects = root.getProjects();
 		try {
+			Map savedFiles = DictionaryIndexStore.load();
 			for (int i = 0; i < projects.length; i++) {
 				IProject project = projects[i];
-				collectSchemeSources(project);
+				collectSchemeSources(project, savedFiles);
 			}
-//			processPendingResources(true);
+			processPendingResources();
 		}
 		catch (Exception exception) {
 			SchemeScriptPlugin.logException("Error while updating user dictionary", exception);
 		}
 	}
 
-	private void collectSchemeSources(IProject project) {
+	private void collectSchemeSources(IProject project, Map savedFiles) {
 		try {
 			IResource[] members = project.members();
 			for (int elementIndex = 0; elementIndex < members.length; elementIndex++) {
-				scanElement(members[elementIndex]);
+				scanElement(members[elementIndex], savedFiles);
 			}
 		}
 		catch (Exception exception) {
 		}
 	}
 
-	private void scanElement(IResource resource) throws CoreException {
+	private void scanElement(IResource resource, Map savedFiles) throws CoreException {
 		if (resource instanceof IFile) {
 			IFile file = (IFile) resource;
 			if (isSchemeSourceFile(file)) {
+				DictionaryIndexStore.IndexedFile savedFile = (DictionaryIndexStore.IndexedFile) savedFiles.get(file);
+				if (savedFile != null && savedFile.stamp == file.getModificationStamp()) {
+					synchronized (mRestoredFiles) {
+						mRestoredFiles.put(file, savedFile);
+					}
+				}
 				synchronized (mPendingResources) {
 					mPendingResources.add(file);
 				}
@@ -93,120 +137,136 @@ public class DictionaryUpdater implements IResourceChangeListener {
 			IContainer container = (IContainer) resource;
 			IResource[] members = container.members();
 			for (int elementIndex = 0; elementIndex < members.length; elementIndex++) {
-				scanElement(members[elementIndex]);
+				scanElement(members[elementIndex], savedFiles);
 			}
 		}
 	}
 
-	public void processPendingResources(boolean displayProgress) {
+	/**
+	 * Starts the indexing jobs if some files are waiting to be scanned. The
+	 * dictionary is updated in the background, so this method returns
+	 * immediately.
+	 */
+	public void processPendingResources() {
 		if (!mPendingResources.isEmpty()) {
-			try {
-				final IFile[] files;
-				synchronized (mPendingResources) {
-					files = new IFile[mPendingResources.size()];
-					mPendingResources.toArray(files);
-					mPendingResources.clear();
-				}
-				IWorkbenchWindow window = null;
-				try {
-					if (displayProgress)
-						window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
-				}
-				catch (Exception exception) {
-					window = null;
-				}
-				if (window != null) {
-					window.run(true, true, new IRunnableWithProgress() {
-						public void run(IProgressMonitor monitor) throws InvocationTargetException,
-								InterruptedException {
-							scanPendingChangedFiles(files, monitor);
-							if (monitor != null && monitor.isCanceled()) {
-								synchronized (mPendingResources) {
-									mPendingResources.addAll(Arrays.asList(files));
-								}
-							}
-						}
-					});
-				}
-				else
-					scanPendingChangedFiles(files, null);
-			}
-			catch (Exception exception) {
-				SchemeScriptPlugin.logException("Error while updating user dictionary", exception);
+			for (int i = 0; i < mWorkers.length; i++) {
+				mWorkers[i].schedule();
 			}
 		}
 	}
 
-	private void scanPendingChangedFiles(final IFile[] files, IProgressMonitor monitor) {
-		if (monitor != null)
-			monitor.beginTask("Updating dictionary:", files.length);
-		for (int i = 0; i < files.length; i++) {
-			IFile file = files[i];
-			if (monitor != null && monitor.isCanceled())
-				break;
-			scanSchemeFile(file, monitor);
-			if (monitor != null)
-				monitor.worked(1);
+	private ScanResult nextPendingScan() {
+		synchronized (mPendingResources) {
+			if (mPendingResources.isEmpty())
+				return null;
+			return new ScanResult((IFile) mPendingResources.remove(0), mScanCount++);
 		}
-		if (monitor != null)
-			monitor.done();
 	}
 
-	private void scanSchemeFile(IFile file, IProgressMonitor monitor) {
-		if (monitor != null) {
-			monitor.subTask(file.getProject().getName() + " - " + file.getName());
+	private void scanSchemeFile(ScanResult scan, Procedure collectEntries, IProgressMonitor monitor) {
+		IFile file = scan.file;
+		monitor.subTask(file.getProject().getName() + " - " + file.getName());
+
+		DictionaryIndexStore.IndexedFile indexedFile;
+		synchronized (mRestoredFiles) {
+			indexedFile = (DictionaryIndexStore.IndexedFile) mRestoredFiles.remove(file);
+		}
+		boolean cacheable = true;
+		if (indexedFile == null) {
+			long stamp = file.getModificationStamp();
+			List entries = new ArrayList();
+			if (file.exists()) {
+				cacheable = collectEntriesForResource(file, collectEntries, entries);
+			}
+			indexedFile = new DictionaryIndexStore.IndexedFile(stamp, (SymbolEntry[]) entries.toArray(new SymbolEntry[entries.size()]));
+		}
+		scan.indexedFile = indexedFile;
+		scan.cacheable = cacheable && file.exists();
+		synchronized (mScanResults) {
+			mScanResults.add(scan);
 		}
-		updateDictionaryForResource(file);
-		// TODO: Put this is its own ResourceChangeListener
-		SchemeScriptPlugin.getReferencesManager().scanResourceForSymbols(file);
-		
 	}
 
-	private void updateDictionaryForResource(IFile file) {
-		Object object = KawaProxy.get("update-dictionary-for-file");
-		if (object != null && object instanceof Procedure)
-		{
-			Procedure updateForFile = (Procedure) object;
-			try {
-				updateForFile.apply1(file);
-			}
-			catch (Throwable exception) {
-				SchemeScriptPlugin.logException("Error while calling 'update-dictionary-for-file' for: " + file.getName(), exception);
+	/*
+	 * Runs the code walkers on the file, in the current thread, and adds the
+	 * entries found to the list. Returns false if the entries of the file
+	 * cannot be restored from a saved index.
+	 */
+	private boolean collectEntriesForResource(IFile file, Procedure collectEntries, List entries) {
+		if (collectEntries == null)
+			return false;
+		try {
+			Pair result = (Pair) collectEntries.apply1(file);
+			Map dictionary = (Map) result.cdr;
+			for (Iterator iterator = dictionary.values().iterator(); iterator.hasNext();) {
+				DictionaryUtils.addEntriesToJavaList((LList) iterator.next(), entries);
 			}
+			return result.car != Boolean.FALSE
+					&& file.findMarkers(ERROR_MARKER_ID, false, IResource.DEPTH_ZERO).length == 0;
+		}
+		catch (Throwable exception) {
+			SchemeScriptPlugin.logException("Error while calling 'collect-dictionary-entries-for-file' for: " + file.getName(), exception);
+			return false;
 		}
 	}
 
-	protected void findSymbols(String name, List entries) {
-		processPendingResources(true);
-		List existingEntries = (List) mEntries.get(name);
-		if (existingEntries != null) {
-			for (Iterator iterator = existingEntries.iterator(); iterator.hasNext();) {
-				SymbolEntry entry = (SymbolEntry) iterator.next();
-				entries.add(entry);
+	/*
+	 * Replaces the entries of the scanned files in the user dictionary. The
+	 * whole pass is merged in a single copy of the dictionary. A file
+	 * changed while it was scanned is scanned again in the same pass: only
+	 * its last scan is kept.
+	 */
+	private void mergeScanResults() {
+		// IFile -> ScanResult
+		Map lastScans = new LinkedHashMap();
+		synchronized (mScanResults) {
+			for (Iterator iterator = mScanResults.iterator(); iterator.hasNext();) {
+				ScanResult result = (ScanResult) iterator.next();
+				ScanResult previous = (ScanResult) lastScans.get(result.file);
+				if (previous == null || previous.sequence < result.sequence)
+					lastScans.put(result.file, result);
 			}
+			mScanResults.clear();
 		}
-	}
+		if (lastScans.isEmpty())
+			return;
 
-	protected void completeSymbols(String prefix, List entries) {
-		processPendingResources(true);
+		List resources = new ArrayList(lastScans.size());
+		List entries = new ArrayList();
+		synchronized (mIndexedFiles) {
+			for (Iterator iterator = lastScans.values().iterator(); iterator.hasNext();) {
+				ScanResult result = (ScanResult) iterator.next();
+				resources.add(result.file);
+				entries.addAll(Arrays.asList(result.indexedFile.entries));
+				if (result.cacheable)
+					mIndexedFiles.put(result.file, result.indexedFile);
+				else
+					mIndexedFiles.remove(result.file);
+			}
+		}
 
-		Enumeration enumeration = mEntries.keys();
-		while (enumeration.hasMoreElements()) {
-			String symbolName = (String) enumeration.nextElement();
-			if (symbolName.startsWith(prefix)) {
-				List existingEntries = (List) mEntries.get(symbolName);
-				for (Iterator iterator = existingEntries.iterator(); iterator.hasNext();) {
-					SymbolEntry entry = (SymbolEntry) iterator.next();
-					entries.add(entry);
+		final LList resourceList = LList.makeList(resources);
+		final LList entryList = LList.makeList(entries);
+		KawaProxy.submit(new Runnable() {
+			public void run() {
+				try {
+					Object object = Environment.getCurrent().get("replace-dictionary-entries-for-resources");
+					if (object instanceof Procedure) {
+						((Procedure) object).apply2(resourceList, entryList);
+					}
+				}
+				catch (Throwable exception) {
+					SchemeScriptPlugin.logException("Error while updating user dictionary", exception);
 				}
 			}
-		}
+		});
 	}
 
 	public void resourceChanged(IResourceChangeEvent event) {
 		synchronized (mPendingResources) {
 			processResourceDelta(event.getDelta());
 		}
+		processPendingResources();
 	}
 
 	private void processChangedResource(IFile file) {
@@ -230,7 +290,9 @@ public class DictionaryUpdater implements IResourceChangeListener {
 		IResource resource = delta.getResource();
 		int kind = delta.getKind();
 		if (resource instanceof IFile
-				&& (kind == IResourceDelta.ADDED || (kind == IResourceDelta.CHANGED && ((delta.getFlags() & IResourceDelta.CONTENT) != 0)))) {
+				&& (kind == IResourceDelta.ADDED
+					|| kind == IResourceDelta.REMOVED
+					|| (kind == IResourceDelta.CHANGED && ((delta.getFlags() & IResourceDelta.CONTENT) != 0)))) {
 			processChangedResource((IFile) resource);
 		}
 		IResourceDelta[] children = delta.getAffectedChildren();
@@ -239,4 +301,73 @@ public class DictionaryUpdater implements IResourceChangeListener {
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * The scan of a file taken from the pending files, then the definitions
+	 * found, waiting to be merged in the dictionary.
+	 */
+	private static final class ScanResult {
+		final IFile file;
+		final int sequence;
+		DictionaryIndexStore.IndexedFile indexedFile;
+		boolean cacheable;
+
+		ScanResult(IFile file, int sequence) {
+			this.file = file;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * Scans pending files until there are none left. Several of these jobs run
+	 * at the same time.
+	 */
+	private final class IndexingJob extends Job {
+		IndexingJob() {
+			super("Updating dictionary");
+			setPriority(Job.LONG);
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == DictionaryUpdater.this;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			// the job threads are pooled: the environment is restored when done
+			Environment previous = Environment.getCurrent();
+			Environment.setCurrent(KawaProxy.getEnvironment());
+
+			monitor.beginTask("Updating dictionary:", IProgressMonitor.UNKNOWN);
+			synchronized (mScanResults) {
+				mRunningWorkers++;
+			}
+			try {
+				Object object = KawaProxy.get("collect-dictionary-entries-for-file");
+				Procedure collectEntries = (object instanceof Procedure) ? (Procedure) object : null;
+
+				ScanResult scan = nextPendingScan();
+				while (scan != null) {
+					if (monitor.isCanceled()) {
+						mPendingResources.add(0, scan.file);
+						return Status.CANCEL_STATUS;
+					}
+					scanSchemeFile(scan, collectEntries, monitor);
+					monitor.worked(1);
+					scan = nextPendingScan();
+				}
+				return Status.OK_STATUS;
+			}
+			finally {
+				// the last job of the pass merges the results; when canceled,
+				// they are merged by the next run
+				boolean last;
+				synchronized (mScanResults) {
+					last = --mRunningWorkers == 0;
+				}
+				if (last && !monitor.isCanceled())
+					mergeScanResults();
+				monitor.done();
+				Environment.setCurrent(previous);
+			}
+		}
+	}
+}
@@ -5,6 +5,7 @@ package org.schemeway.plugins.schemescript.dictionary;
 
 import gnu.lists.*;
 import gnu.mapping.*;
+import gnu.math.*;
 
 import java.util.*;
 
@@ -55,13 +56,22 @@ public final class DictionaryUtils {
 	}
 	
 	public static SymbolEntry[] findCompletions(String prefix) {
+		return findCompletions(prefix, 0);
+	}
+
+	/**
+	 * Returns the entries of the <code>limit</code> best symbols starting
+	 * with <code>prefix</code>, or of all of them if <code>limit</code> is
+	 * not positive.
+	 */
+	public static SymbolEntry[] findCompletions(String prefix, int limit) {
 		Object object = KawaProxy.get("find-completions");
 		if (object != null && object instanceof Procedure)
 		{
 			Procedure proc = (Procedure) object;
 			try {
-				LList entryList = (LList) proc.apply1(prefix);
-				LinkedList entries = new LinkedList();
+				LList entryList = (LList) proc.apply2(prefix, IntNum.make(limit));
+				List entries = new ArrayList();
 				addEntriesToJavaList(entryList, entries);
 				return (SymbolEntry[]) entries.toArray(new SymbolEntry[entries.size()]);
 			}
@@ -72,7 +82,7 @@ public final class DictionaryUtils {
 		return new SymbolEntry[0];
 	}
 
-	private static void addEntriesToJavaList(LList entryList, List entries) {
+	static void addEntriesToJavaList(LList entryList, List entries) {
 		while (entryList instanceof Pair) {
 			Pair pair = (Pair) entryList;
 			entries.add(pair.car);
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.dictionary;
+
+import gnu.lists.*;
+
+import java.util.*;
+
+import org.eclipse.jdt.core.*;
+
+/**
+ * Caches the {@link JavaMemberTable}s of the classes completed after a
+ * namespace prefix. The members are looked up in the Java projects of the
+ * workspace, or by reflection, by the Scheme code of <code>forms.scm</code>,
+ * which stores them here.
+ * <p>
+ * The table of a class is dropped when the Java model reports a change to
+ * its compilation unit or class file. All the tables are dropped when class
+ * paths, archives, projects or packages change. A table computed before a
+ * change is not stored: the generation read before computing it must be
+ * passed to {@link #putTable(String, LList, int)}.
+ *
+ * @author SchemeWay Project.
+ */
+public final class JavaMemberCache implements IElementChangedListener {
+	private static final int CACHE_SIZE = 64;
+
+	// String -> JavaMemberTable, the classes used most recently
+	private Map mTables = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	// incremented when tables are dropped
+	private int mGeneration = 0;
+
+	private JavaMemberCache() {
+	}
+
+	public static JavaMemberCache createInstance() {
+		JavaMemberCache instance = new JavaMemberCache();
+		JavaCore.addElementChangedListener(instance, ElementChangedEvent.POST_CHANGE);
+		return instance;
+	}
+
+	public void dispose() {
+		JavaCore.removeElementChangedListener(this);
+	}
+
+	public synchronized int getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Returns the table of <code>className</code>, or <code>null</code> if
+	 * it is not cached.
+	 */
+	public synchronized JavaMemberTable getTable(String className) {
+		return (JavaMemberTable) mTables.get(className);
+	}
+
+	/**
+	 * Returns the table of the members of <code>className</code>, and caches
+	 * it unless the tables were dropped since <code>generation</code>.
+	 */
+	public synchronized JavaMemberTable putTable(String className, LList members, int generation) {
+		JavaMemberTable table = new JavaMemberTable(members);
+		if (generation == mGeneration)
+			mTables.put(className, table);
+		return table;
+	}
+
+	public void elementChanged(ElementChangedEvent event) {
+		dropTables(event.getDelta());
+	}
+
+	private void dropTables(IJavaElementDelta delta) {
+		IJavaElement element = delta.getElement();
+		int type = element.getElementType();
+		if (type == IJavaElement.COMPILATION_UNIT || type == IJavaElement.CLASS_FILE) {
+			dropClassTables(getQualifiedName(element));
+			return;
+		}
+
+		if ((type < IJavaElement.COMPILATION_UNIT && delta.getKind() != IJavaElementDelta.CHANGED)
+			|| changesClassPath(delta)) {
+			dropClassTables(null);
+			return;
+		}
+
+		IJavaElementDelta[] children = delta.getAffectedChildren();
+		for (int i = 0; i < children.length; i++) {
+			dropTables(children[i]);
+		}
+	}
+
+	/**
+	 * Returns true if the delta changes where the classes of its element are
+	 * found: class path, archive contents, or a project opened or closed.
+	 */
+	public static boolean changesClassPath(IJavaElementDelta delta) {
+		return (delta.getFlags() & (IJavaElementDelta.F_CLASSPATH_CHANGED
+									| IJavaElementDelta.F_ADDED_TO_CLASSPATH
+									| IJavaElementDelta.F_REMOVED_FROM_CLASSPATH
+									| IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED
+									| IJavaElementDelta.F_OPENED
+									| IJavaElementDelta.F_CLOSED)) != 0;
+	}
+
+	/*
+	 * Drops the tables of the class and of its nested classes, or all the
+	 * tables if the name is null.
+	 */
+	private synchronized void dropClassTables(String qualifiedName) {
+		if (qualifiedName == null)
+			mTables.clear();
+		else {
+			String nestedPrefix = qualifiedName + "$";
+			for (Iterator iterator = mTables.keySet().iterator(); iterator.hasNext();) {
+				String className = (String) iterator.next();
+				if (className.equals(qualifiedName) || className.startsWith(nestedPrefix))
+					iterator.remove();
+			}
+		}
+		mGeneration++;
+	}
+
+	// the name of the primary class of a compilation unit or class file
+	private static String getQualifiedName(IJavaElement element) {
+		String name = element.getElementName();
+		int extension = name.lastIndexOf('.');
+		if (extension >= 0)
+			name = name.substring(0, extension);
+
+		IJavaElement parent = element.getParent();
+		if (parent instanceof IPackageFragment && !((IPackageFragment) parent).isDefaultPackage())
+			name = parent.getElementName() + "." + name;
+		return name;
+	}
+}
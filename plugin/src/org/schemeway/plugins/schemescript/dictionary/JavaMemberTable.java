@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.dictionary;
+
+import gnu.lists.*;
+
+import java.util.*;
+
+/**
+ * The public members of a Java class, as completed after a namespace prefix
+ * (<code>Namespace:member</code>). The members are sorted by name, so that
+ * the members starting with a given prefix form a contiguous range found by
+ * binary search.
+ *
+ * @author SchemeWay Project.
+ */
+public final class JavaMemberTable {
+	public static final String CATEGORY = "java-member";
+
+	private final String[] mNames;
+	private final String[] mDescriptions;
+
+	/**
+	 * Builds the table of a Scheme list of members. Each member is a list
+	 * holding its name and its description.
+	 */
+	public JavaMemberTable(LList members) {
+		Object[] sorted = members.toArray();
+		Arrays.sort(sorted, new Comparator() {
+			public int compare(Object member1, Object member2) {
+				return getName(member1).compareTo(getName(member2));
+			}
+		});
+
+		mNames = new String[sorted.length];
+		mDescriptions = new String[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			mNames[i] = getName(sorted[i]);
+			mDescriptions[i] = ((Pair) ((Pair) sorted[i]).cdr).car.toString();
+		}
+	}
+
+	private static String getName(Object member) {
+		return ((Pair) member).car.toString();
+	}
+
+	public int size() {
+		return mNames.length;
+	}
+
+	/**
+	 * Returns the entries of the members starting with <code>prefix</code>,
+	 * named <code>namespace:member</code>, in alphabetical order.
+	 */
+	public LList getCompletions(String namespace, String prefix) {
+		int start = lowerBound(prefix);
+		int end = start;
+		while (end < mNames.length && mNames[end].startsWith(prefix))
+			end++;
+
+		LList result = LList.Empty;
+		for (int i = end - 1; i >= start; i--) {
+			SymbolEntry entry = new SymbolEntry(namespace + ":" + mNames[i], mDescriptions[i], CATEGORY);
+			result = new Pair(entry, result);
+		}
+		return result;
+	}
+
+	// Returns the index of the first name not smaller than prefix.
+	private int lowerBound(String prefix) {
+		int low = 0;
+		int high = mNames.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mNames[middle].compareTo(prefix) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
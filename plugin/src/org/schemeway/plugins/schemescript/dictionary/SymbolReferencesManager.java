@@ -3,24 +3,176 @@
  */
 package org.schemeway.plugins.schemescript.dictionary;
 
+import java.util.*;
+
 import org.eclipse.core.filebuffers.*;
 import org.eclipse.core.resources.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
 import org.eclipse.jface.text.*;
+import org.schemeway.plugins.schemescript.*;
 import org.schemeway.plugins.schemescript.parser.*;
 
 /**
+ * Keeps the symbol references of the Scheme files of the workspace up to
+ * date. Files are rescanned by a background job when the workspace reports
+ * a change; changes are collected for a short delay, so that a burst of
+ * changes results in a single rescan. The references of removed files and
+ * of closed projects are dropped.
+ *
  * @author SchemeWay Project.
- * 
  */
 public class SymbolReferencesManager implements IResourceChangeListener {
+	private static final long RESCAN_DELAY = 500;
 
 	private SymbolReferencesTable mReferencesTable = new SymbolReferencesTable();
+	private List mSchemeExtensions;
+	private Set mPendingResources = new LinkedHashSet();
+	private Job mRescanJob;
+
+	private SymbolReferencesManager(String extensions) {
+		mSchemeExtensions = new LinkedList();
+		StringTokenizer tokenizer = new StringTokenizer(extensions, ",");
+		while (tokenizer.hasMoreElements()) {
+			mSchemeExtensions.add(tokenizer.nextToken());
+		}
+		mRescanJob = new RescanJob();
+	}
+
+	public static SymbolReferencesManager createInstance(String extensions) {
+		SymbolReferencesManager instance = new SymbolReferencesManager(extensions);
+		instance.initialize();
+		return instance;
+	}
+
+	private void initialize() {
+		IProject[] projects = ResourcesPlugin.getWorkspace().getRoot().getProjects();
+		for (int i = 0; i < projects.length; i++) {
+			addSchemeSources(projects[i]);
+		}
+		mRescanJob.schedule();
+	}
 
-	public SymbolReferencesManager() {
+	public void dispose() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+		mRescanJob.cancel();
+		synchronized (mPendingResources) {
+			mPendingResources.clear();
+		}
 	}
 
 	public void resourceChanged(IResourceChangeEvent event) {
+		if (event.getDelta() == null)
+			return;
+
+		boolean changed;
+		synchronized (mPendingResources) {
+			int pendingCount = mPendingResources.size();
+			processResourceDelta(event.getDelta());
+			changed = mPendingResources.size() != pendingCount;
+		}
+		if (changed) {
+			// restart the delay, so that consecutive changes are scanned once
+			mRescanJob.cancel();
+			mRescanJob.schedule(RESCAN_DELAY);
+		}
+	}
+
+	private void processResourceDelta(IResourceDelta delta) {
+		IResource resource = delta.getResource();
+		int kind = delta.getKind();
+
+		if (kind == IResourceDelta.REMOVED) {
+			removeResource(resource);
+			return;
+		}
+		if (resource instanceof IProject && (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+			IProject project = (IProject) resource;
+			if (project.isOpen())
+				addSchemeSources(project);
+			else
+				removeResource(project);
+			return;
+		}
+		if (resource instanceof IFile) {
+			if (kind == IResourceDelta.ADDED
+					|| (kind == IResourceDelta.CHANGED && (delta.getFlags() & IResourceDelta.CONTENT) != 0)) {
+				IFile file = (IFile) resource;
+				if (isSchemeSourceFile(file))
+					mPendingResources.add(file);
+			}
+			return;
+		}
+
+		IResourceDelta[] children = delta.getAffectedChildren();
+		for (int i = 0; i < children.length; i++) {
+			processResourceDelta(children[i]);
+		}
+	}
+
+	private void removeResource(IResource resource) {
+		IPath path = resource.getFullPath();
+		for (Iterator iterator = mPendingResources.iterator(); iterator.hasNext();) {
+			IResource pendingResource = (IResource) iterator.next();
+			if (path.isPrefixOf(pendingResource.getFullPath()))
+				iterator.remove();
+		}
+		mReferencesTable.removeReferencesUnder(path);
+	}
+
+	private void addSchemeSources(IContainer container) {
+		if (!container.isAccessible())
+			return;
+		try {
+			container.accept(new IResourceProxyVisitor() {
+				public boolean visit(IResourceProxy proxy) {
+					if (proxy.getType() == IResource.FILE) {
+						IFile file = (IFile) proxy.requestResource();
+						if (isSchemeSourceFile(file)) {
+							synchronized (mPendingResources) {
+								mPendingResources.add(file);
+							}
+						}
+						return false;
+					}
+					return true;
+				}
+			}, IResource.NONE);
+		}
+		catch (CoreException exception) {
+			SchemeScriptPlugin.logException("Error while collecting the Scheme files of " + container.getName(), exception);
+		}
+	}
+
+	private boolean isSchemeSourceFile(IFile file) {
+		String extension = file.getFileExtension();
+		return extension != null && mSchemeExtensions.contains(extension);
+	}
+
+	private IFile nextPendingResource() {
+		synchronized (mPendingResources) {
+			Iterator iterator = mPendingResources.iterator();
+			if (!iterator.hasNext())
+				return null;
+			IFile file = (IFile) iterator.next();
+			iterator.remove();
+			return file;
+		}
+	}
+
+	/**
+	 * Waits until the pending changes have been scanned. Does not scan
+	 * anything in the calling thread.
+	 */
+	public void waitForPendingScans(IProgressMonitor monitor) {
+		if (mRescanJob.getState() == Job.SLEEPING)
+			mRescanJob.wakeUp();
+		try {
+			Job.getJobManager().join(this, monitor);
+		}
+		catch (InterruptedException exception) {
+			// return the current state of the index
+		}
 	}
 
 	public SymbolReferencesTable getSymbolReferencesTable() {
@@ -49,11 +201,10 @@ public class SymbolReferencesManager implements IResourceChangeListener {
 	}
 
 	private void scanDocumentForSymbols(IResource resource, IDocument document) {
-		mReferencesTable.removeReferences(resource);
-		
+		SymbolReferencesTable.SegmentBuilder references = new SymbolReferencesTable.SegmentBuilder();
 		SchemeScanner scanner = new SchemeScanner();
-		scanner.setRange(document, 0, document.getLength());
-		
+		scanner.setRange(document.get().toCharArray(), 0, document.getLength());
+
 		SchemeToken token = scanner.nextToken();
 		while (token != SchemeToken.EOF) {
 			if (token.getType() == SchemeToken.SYMBOL) {
@@ -61,10 +212,45 @@ public class SymbolReferencesManager implements IResourceChangeListener {
 				int length = scanner.getTokenLength();
 				String symbol = scanner.getText(offset, length);
 				if (!".".equals(symbol)) {
-					mReferencesTable.addEntry(symbol, resource, offset, length);
+					references.add(symbol, offset);
 				}
 			}
 			token = scanner.nextToken();
 		}
+		mReferencesTable.setReferences(resource, references);
+	}
+
+	/**
+	 * Rescans the pending files.
+	 */
+	private final class RescanJob extends Job {
+		RescanJob() {
+			super("Updating symbol references");
+			setSystem(true);
+			setPriority(Job.LONG);
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == SymbolReferencesManager.this;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			IFile file = nextPendingResource();
+			while (file != null) {
+				if (monitor.isCanceled()) {
+					synchronized (mPendingResources) {
+						mPendingResources.add(file);
+					}
+					return Status.CANCEL_STATUS;
+				}
+				if (file.exists())
+					scanResourceForSymbols(file);
+				// the file may have been removed while it was scanned
+				if (!file.exists())
+					mReferencesTable.removeReferences(file);
+				file = nextPendingResource();
+			}
+			return Status.OK_STATUS;
+		}
 	}
 }
@@ -6,100 +6,260 @@ package org.schemeway.plugins.schemescript.dictionary;
 import java.util.*;
 
 import org.eclipse.core.resources.*;
+import org.eclipse.core.runtime.*;
 
 /**
+ * The references to the symbols of the workspace files.
+ * <p>
+ * Symbol names are interned once and identified by an integer. The ids are
+ * counted by the segments using them, and released with the last one, so
+ * that the names of deleted or edited files do not pile up. The
+ * references of each resource are kept in a separate segment of primitive
+ * arrays, grouped by symbol, so that replacing or dropping the references of
+ * a file only costs the size of that file. The length of a reference is the
+ * length of its symbol name, so only the offsets are stored.
+ *
  * @author SchemeWay Project.
- * 
  */
 public class SymbolReferencesTable {
-	
-	private Map mSymbolReferences = Collections.synchronizedMap(new HashMap());
 
-	public void addEntry(String symbol, IResource resource, int offset, int length) {
-		List references = (List) mSymbolReferences.get(symbol);
+	/**
+	 * Collects the references of a resource before they replace its segment.
+	 */
+	public static final class SegmentBuilder {
+		private String[] mSymbols = new String[256];
+		private int[] mOffsets = new int[256];
+		private int mCount = 0;
 
-		if (references == null) {
-			references = new ArrayList();
-			mSymbolReferences.put(symbol, references);
+		public void add(String symbol, int offset) {
+			if (mCount == mSymbols.length) {
+				String[] symbols = new String[mCount * 2];
+				int[] offsets = new int[mCount * 2];
+				System.arraycopy(mSymbols, 0, symbols, 0, mCount);
+				System.arraycopy(mOffsets, 0, offsets, 0, mCount);
+				mSymbols = symbols;
+				mOffsets = offsets;
+			}
+			mSymbols[mCount] = symbol;
+			mOffsets[mCount] = offset;
+			mCount++;
 		}
 
-		references.add(new Reference(resource, offset, length));
+		public int size() {
+			return mCount;
+		}
 	}
 
-	public Reference[] getReferences(String symbol) {
-		List references = (List) mSymbolReferences.get(symbol);
-		if (references == null) {
-			return new Reference[0];
+	/*
+	 * The references of one resource. The references to the symbol
+	 * mSymbolIds[i] have their offsets, in increasing order, in
+	 * mOffsets[mStarts[i]] to mOffsets[mStarts[i + 1] - 1].
+	 */
+	private static final class Segment {
+		final IResource resource;
+		final int[] symbolIds;
+		final int[] starts;
+		final int[] offsets;
+
+		Segment(IResource resource, int[] symbolIds, int[] starts, int[] offsets) {
+			this.resource = resource;
+			this.symbolIds = symbolIds;
+			this.starts = starts;
+			this.offsets = offsets;
 		}
-		
-		return (Reference[]) references.toArray(new Reference[references.size()]);
 	}
-	
-	public Reference[] getReferences(String symbol, IResource resource) {
-		List references = (List) mSymbolReferences.get(symbol);
-		if (references == null) {
-			return new Reference[0];
-		}
-		
-		List filteredReferences = Collections.synchronizedList(new ArrayList());
-		for (Iterator iter = references.iterator(); iter.hasNext();) {
-			Reference reference = (Reference) iter.next();
-			if (resource == null || reference.resource.equals(resource)) {
-				filteredReferences.add(reference);
+
+	private static final Reference[] NO_REFERENCES = new Reference[0];
+
+	// String -> Integer
+	private Map mSymbolIds = new HashMap();
+	private String[] mSymbols = new String[1024];
+	// the number of segments using each symbol id
+	private int[] mSegmentCounts = new int[1024];
+	private int mSymbolCount = 0;
+	// the released ids, reused before new ones
+	private int[] mFreeIds = new int[64];
+	private int mFreeCount = 0;
+	// IResource -> Segment
+	private Map mSegments = new LinkedHashMap();
+
+	public synchronized void addEntry(String symbol, IResource resource, int offset, int length) {
+		// Rare: adds a single reference by rebuilding the segment of the resource
+		SegmentBuilder builder = new SegmentBuilder();
+		Segment segment = (Segment) mSegments.get(resource);
+		if (segment != null) {
+			for (int i = 0; i < segment.symbolIds.length; i++) {
+				String name = mSymbols[segment.symbolIds[i]];
+				for (int j = segment.starts[i]; j < segment.starts[i + 1]; j++) {
+					builder.add(name, segment.offsets[j]);
+				}
 			}
 		}
-		return (Reference[]) filteredReferences.toArray(new Reference[filteredReferences.size()]);
+		builder.add(symbol, offset);
+		setReferences(resource, builder);
+	}
+
+	/**
+	 * Replaces all the references of <code>resource</code> by the ones
+	 * collected in <code>builder</code>.
+	 */
+	public synchronized void setReferences(IResource resource, SegmentBuilder builder) {
+		int count = builder.mCount;
+		if (count == 0) {
+			release((Segment) mSegments.remove(resource));
+			return;
+		}
+
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = intern(builder.mSymbols[i]);
+		}
+
+		int[] symbolIds = (int[]) ids.clone();
+		Arrays.sort(symbolIds);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || symbolIds[i] != symbolIds[distinct - 1])
+				symbolIds[distinct++] = symbolIds[i];
+		}
+		int[] trimmedIds = new int[distinct];
+		System.arraycopy(symbolIds, 0, trimmedIds, 0, distinct);
+		for (int i = 0; i < distinct; i++) {
+			mSegmentCounts[trimmedIds[i]]++;
+		}
+
+		// stable counting sort of the references by symbol
+		int[] starts = new int[distinct + 1];
+		int[] groups = new int[count];
+		for (int i = 0; i < count; i++) {
+			groups[i] = Arrays.binarySearch(trimmedIds, ids[i]);
+			starts[groups[i] + 1]++;
+		}
+		for (int i = 0; i < distinct; i++) {
+			starts[i + 1] += starts[i];
+		}
+		int[] next = (int[]) starts.clone();
+		int[] offsets = new int[count];
+		for (int i = 0; i < count; i++) {
+			offsets[next[groups[i]]++] = builder.mOffsets[i];
+		}
+
+		release((Segment) mSegments.put(resource, new Segment(resource, trimmedIds, starts, offsets)));
 	}
-	
-	public Reference[] getReferences(String symbol, IResource resource, int startOffset, int endOffset) {
-		// TODO: share code with the previous method
-		List references = (List) mSymbolReferences.get(symbol);
-		if (references == null) {
-			return new Reference[0];
-		}
-		
-		List filteredReferences = Collections.synchronizedList(new ArrayList());
-		for (Iterator iter = references.iterator(); iter.hasNext();) {
-			Reference reference = (Reference) iter.next();
-			if (resource == null || reference.resource.equals(resource)) {
-				int referenceStart = reference.offset;
-				if (startOffset <= referenceStart && referenceStart <= endOffset) {
-					filteredReferences.add(reference);
+
+	private int intern(String symbol) {
+		Integer id = (Integer) mSymbolIds.get(symbol);
+		if (id != null)
+			return id.intValue();
+
+		int newId;
+		if (mFreeCount > 0)
+			newId = mFreeIds[--mFreeCount];
+		else {
+			if (mSymbolCount == mSymbols.length) {
+				String[] symbols = new String[mSymbolCount * 2];
+				int[] segmentCounts = new int[mSymbolCount * 2];
+				System.arraycopy(mSymbols, 0, symbols, 0, mSymbolCount);
+				System.arraycopy(mSegmentCounts, 0, segmentCounts, 0, mSymbolCount);
+				mSymbols = symbols;
+				mSegmentCounts = segmentCounts;
+			}
+			newId = mSymbolCount++;
+		}
+		mSymbols[newId] = symbol;
+		mSymbolIds.put(symbol, new Integer(newId));
+		return newId;
+	}
+
+	// Releases the symbol ids no longer used once the segment is dropped.
+	private void release(Segment segment) {
+		if (segment == null)
+			return;
+		for (int i = 0; i < segment.symbolIds.length; i++) {
+			int id = segment.symbolIds[i];
+			if (--mSegmentCounts[id] == 0) {
+				mSymbolIds.remove(mSymbols[id]);
+				mSymbols[id] = null;
+				if (mFreeCount == mFreeIds.length) {
+					int[] freeIds = new int[mFreeCount * 2];
+					System.arraycopy(mFreeIds, 0, freeIds, 0, mFreeCount);
+					mFreeIds = freeIds;
 				}
+				mFreeIds[mFreeCount++] = id;
 			}
 		}
-		return (Reference[]) filteredReferences.toArray(new Reference[filteredReferences.size()]);
-		
 	}
-	
-	public synchronized void removeReferences(IResource resource) {
-		Map remainingReferences = new HashMap();
-		
-		Set keyset = mSymbolReferences.keySet();
-		for (Iterator iter = keyset.iterator(); iter.hasNext();) {
-			String symbol = (String) iter.next();
-			removeReferences(remainingReferences, symbol, resource);
-		}
-		
-		mSymbolReferences = Collections.synchronizedMap(remainingReferences);
+
+	public Reference[] getReferences(String symbol) {
+		return getReferences(symbol, null, 0, Integer.MAX_VALUE);
+	}
+
+	public Reference[] getReferences(String symbol, IResource resource) {
+		return getReferences(symbol, resource, 0, Integer.MAX_VALUE);
 	}
-	
-	private void removeReferences(Map remainingReferences, String symbol, IResource resource) {
-		List references = (List) mSymbolReferences.get(symbol);
-		if (references == null) {
+
+	public synchronized Reference[] getReferences(String symbol, IResource resource, int startOffset, int endOffset) {
+		Integer id = (Integer) mSymbolIds.get(symbol);
+		if (id == null) {
+			return NO_REFERENCES;
+		}
+
+		List references = new ArrayList();
+		if (resource == null) {
+			for (Iterator iterator = mSegments.values().iterator(); iterator.hasNext();) {
+				addReferences(references, (Segment) iterator.next(), symbol, id.intValue(), startOffset, endOffset);
+			}
+		}
+		else {
+			Segment segment = (Segment) mSegments.get(resource);
+			if (segment != null)
+				addReferences(references, segment, symbol, id.intValue(), startOffset, endOffset);
+		}
+		return (Reference[]) references.toArray(new Reference[references.size()]);
+	}
+
+	private static void addReferences(List references, Segment segment, String symbol, int id, int startOffset, int endOffset) {
+		int group = Arrays.binarySearch(segment.symbolIds, id);
+		if (group < 0) {
 			return;
 		}
-		
-		List filteredReferences = new ArrayList();
-		for (Iterator iter = references.iterator(); iter.hasNext();) {
-			Reference reference = (Reference) iter.next();
-			if (resource == null || !reference.resource.equals(resource)) {
-				filteredReferences.add(reference);
+		int length = symbol.length();
+		for (int i = segment.starts[group]; i < segment.starts[group + 1]; i++) {
+			int offset = segment.offsets[i];
+			if (offset > endOffset) {
+				break;
+			}
+			if (startOffset <= offset) {
+				references.add(new Reference(segment.resource, offset, length));
 			}
 		}
-		
-		if (filteredReferences.size() != 0) {
-			remainingReferences.put(symbol, filteredReferences);
+	}
+
+	public synchronized void removeReferences(IResource resource) {
+		if (resource == null) {
+			mSegments.clear();
+			mSymbolIds.clear();
+			Arrays.fill(mSymbols, 0, mSymbolCount, null);
+			Arrays.fill(mSegmentCounts, 0, mSymbolCount, 0);
+			mSymbolCount = 0;
+			mFreeCount = 0;
+		}
+		else {
+			release((Segment) mSegments.remove(resource));
+		}
+	}
+
+	/**
+	 * Removes the references of the resources in the workspace folder or
+	 * project at <code>path</code>.
+	 */
+	public synchronized void removeReferencesUnder(IPath path) {
+		for (Iterator iterator = mSegments.values().iterator(); iterator.hasNext();) {
+			Segment segment = (Segment) iterator.next();
+			if (path.isPrefixOf(segment.resource.getFullPath())) {
+				iterator.remove();
+				release(segment);
+			}
 		}
 	}
 }
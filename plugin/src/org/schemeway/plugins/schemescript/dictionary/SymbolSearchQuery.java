@@ -35,6 +35,7 @@ class SymbolSearchQuery implements ISearchQuery {
 
 	public IStatus run(IProgressMonitor monitor) throws OperationCanceledException {
 		SymbolReferencesManager referencesManager = SchemeScriptPlugin.getReferencesManager();
+		referencesManager.waitForPendingScans(monitor);
 		SymbolReferencesTable referencesTable = referencesManager.getSymbolReferencesTable();
 
 		Reference[] references = referencesTable.getReferences(mSearchSymbol);	
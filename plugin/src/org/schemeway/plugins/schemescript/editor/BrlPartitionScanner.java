@@ -25,6 +25,11 @@ public class BrlPartitionScanner extends SchemePartitionScanner {
 			return super.scanToken();
 	}
 	
+	protected boolean canResumeScan(String contentType) {
+		// the BRL strings are not scanned by the Scheme scanner
+		return !contentType.equals(SchemePartitionScanner.SCHEME_STRING);
+	}
+
 	protected boolean endOfDefaultPartition() {
 		return isEndPosition(getPosition()) || (lookahead() == ']');
 	}
@@ -27,9 +27,15 @@ public class SchemeColoringScanner implements ITokenScanner {
     private Token parenToken = new Token(null);
     private Token punctuationToken = new Token(null);
 
-    private SchemeScanner mScanner = new SchemeScanner();
+    private SchemeTokenIndex mIndex;
+    private int mTokenIndex;
+    private int mRangeStart;
+    private int mRangeEnd;
     private ColorManager mColorManager;
     private KeywordManager mKeywordManager;
+    private DocumentCharBuffer mBuffer = new DocumentCharBuffer();
+    // the characters of the current symbol
+    private char[] mText = new char[64];
 
     public SchemeColoringScanner(ColorManager manager, KeywordManager keywordManager) {
         mColorManager = manager;
@@ -78,14 +84,24 @@ public class SchemeColoringScanner implements ITokenScanner {
     private int mLength = -1;
 
     public IToken nextToken() {
-        SchemeToken token = mScanner.nextToken();
-        if (token == SchemeToken.EOF)
+        if (mTokenIndex >= mIndex.getTokenCount())
             return Token.EOF;
 
-        mOffset = token.getOffset();
-        mLength = token.getLength();
+        int index = mTokenIndex++;
+        mOffset = mIndex.getTokenOffset(index);
+        mLength = mIndex.getTokenLength(index);
+        if (mOffset >= mRangeEnd)
+            return Token.EOF;
+
+        // clip the token to the range being colored
+        if (mOffset < mRangeStart) {
+            mLength -= (mRangeStart - mOffset);
+            mOffset = mRangeStart;
+        }
+        if (mOffset + mLength > mRangeEnd)
+            mLength = mRangeEnd - mOffset;
 
-        switch (token.getType()) {
+        switch (mIndex.getTokenType(index)) {
             case SchemeToken.CONSTANT:
                 return constantToken;
             case SchemeToken.LPAREN:
@@ -101,13 +117,14 @@ public class SchemeColoringScanner implements ITokenScanner {
             	return punctuationToken;
             case SchemeToken.SYMBOL:
             {
-                String text = mScanner.getText(mOffset, mLength);
-                if (isSchemeType(text))
+                if (!readText(mOffset, mLength))
+                    return defaultToken;
+                if (isSchemeType())
                     return typeToken;
-                if (isSchemeKey(text))
+                if (isSchemeKey())
                     return keyToken;
 
-                String category = mKeywordManager.getType(text);
+                String category = mKeywordManager.getType(mText, 0, mLength);
                 if (category == KeywordManager.TYPE_OTHER)
                     return defaultToken;
                 if (category == KeywordManager.TYPE_DEFINE)
@@ -124,7 +141,9 @@ public class SchemeColoringScanner implements ITokenScanner {
 	            }
             case SchemeToken.SPECIAL:
             {
-                String category = mKeywordManager.getType(mScanner.getText(mOffset, mLength));
+                if (!readText(mOffset, mLength))
+                    return errorToken;
+                String category = mKeywordManager.getType(mText, 0, mLength);
                 if (category == KeywordManager.TYPE_KEYWORD)
                     return keywordToken;
                 if (category == KeywordManager.TYPE_CONSTANT)
@@ -139,19 +158,21 @@ public class SchemeColoringScanner implements ITokenScanner {
         return defaultToken;
     }
 
-    private boolean isSchemeType(String text) {
-        return mLength > 2 && text.charAt(0) == '<' && text.charAt(mLength - 1) == '>';
+    private boolean isSchemeType() {
+        return mLength > 2 && mText[0] == '<' && mText[mLength - 1] == '>';
     }
 
-    private boolean isSchemeKey(String text) {
-        int length = text.length();
-        if (length == 1)
+    private boolean isSchemeKey() {
+        int length = mLength;
+        if (length <= 1)
             return false;
-        if (text.charAt(0) == ':' && text.lastIndexOf(':') == 0)
-            return true;
-        if (text.charAt(length - 1) == ':' && (text.indexOf(':') == (length - 1)))
-            return true;
-        return false;
+        // a single colon, at the start or at the end
+        int colons = 0;
+        for (int i = 0; i < length; i++) {
+            if (mText[i] == ':')
+                colons++;
+        }
+        return colons == 1 && (mText[0] == ':' || mText[length - 1] == ':');
     }
 
     public int getTokenOffset() {
@@ -163,6 +184,25 @@ public class SchemeColoringScanner implements ITokenScanner {
     }
 
     public void setRange(IDocument document, int offset, int length) {
-        mScanner.setRange(document, offset, length);
+        mIndex = SchemeTokenIndex.getIndex(document);
+        mTokenIndex = mIndex.findToken(offset);
+        mRangeStart = offset;
+        mRangeEnd = offset + length;
+        mBuffer.reset(document, offset, offset + length);
+    }
+
+    // copies the characters of the token in mText
+    private boolean readText(int offset, int length) {
+        if (length > mText.length)
+            mText = new char[Math.max(length, mText.length * 2)];
+        try {
+            for (int i = 0; i < length; i++) {
+                mText[i] = mBuffer.charAt(offset + i);
+            }
+            return true;
+        }
+        catch (BadLocationException exception) {
+            return false;
+        }
     }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ public class SchemeContentAssistProcessor implements IContentAssistProcessor {
     private IResource mResource;
     
     private static final char[] TRIGGER_CHARS = new char[] { '\n', ' ' };
+    private static final int MAXIMUM_PROPOSALS = 200;
 
     private static class SchemeCompletionProposal implements ICompletionProposal, ICompletionProposalExtension, ICompletionProposalExtension3 {
         CompletionProposal mDelegate;
@@ -172,9 +173,9 @@ public class SchemeContentAssistProcessor implements IContentAssistProcessor {
         try {
             String symbol = SchemeTextUtilities.findSymbolBeforePoint(viewer, offset);
             if (symbol != null) {
-                List proposals = new LinkedList();
                 int len = symbol.length();
-                SymbolEntry[] matchingEntries = DictionaryUtils.findCompletions(symbol);
+                SymbolEntry[] matchingEntries = DictionaryUtils.findCompletions(symbol, MAXIMUM_PROPOSALS);
+                List proposals = new ArrayList(matchingEntries.length);
                 for (int index = 0; index < matchingEntries.length; index++) {
                     SymbolEntry entry = matchingEntries[index];
                     String insertion = entry.getName().substring(len);
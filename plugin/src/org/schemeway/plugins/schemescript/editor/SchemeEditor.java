@@ -109,7 +109,7 @@ public class SchemeEditor extends TextEditor {
     	for (Iterator hooks = sSaveHooks.iterator(); hooks.hasNext();) {
 			String symbol = (String) hooks.next();
 			try {
-				Object hook = KawaProxy.get(symbol);
+				Object hook = KawaProxy.getForCommand(symbol);
 				if (hook instanceof Procedure) {
 					Procedure hookProcedure = (Procedure) hook;
 					hookProcedure.applyN(new Object[] { buffer });
@@ -397,29 +397,58 @@ public class SchemeEditor extends TextEditor {
         return this.getDocumentProvider().getDocument(this.getEditorInput());
     }
 
+    // The methods below touch the widgets of the editor, or modify the
+    // document shown by them, so they can be called by the Scheme thread but
+    // run in the display thread.
+
     public final Region getSelection() {
-        Point selection = this.getSourceViewer().getSelectedRange();
-        Region r = new Region(selection.x, selection.y);
-        return r;
+        final Region[] box = new Region[1];
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                Point selection = getSourceViewer().getSelectedRange();
+                box[0] = new Region(selection.x, selection.y);
+            }
+        });
+        return box[0];
     }
 
     public int getPoint() {
-        return this.getSourceViewer().getTextWidget().getCaretOffset();
+        final int[] box = new int[1];
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                box[0] = getSourceViewer().getTextWidget().getCaretOffset();
+            }
+        });
+        return box[0];
     }
 
-    public void setPoint(int offset) {
-        this.getSourceViewer().setSelectedRange(offset, 0);
-        getSourceViewer().revealRange(offset, 0);
+    public void setPoint(final int offset) {
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                getSourceViewer().setSelectedRange(offset, 0);
+                getSourceViewer().revealRange(offset, 0);
+            }
+        });
     }
 
-    public int getOffset(int x, int y) {
-        return getSourceViewer().getTextWidget().getOffsetAtLocation(new Point(x, y));
+    public int getOffset(final int x, final int y) {
+        final int[] box = new int[1];
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                box[0] = getSourceViewer().getTextWidget().getOffsetAtLocation(new Point(x, y));
+            }
+        });
+        return box[0];
     }
 
-    public void setSelection(int start, int end) {
+    public void setSelection(final int start, final int end) {
         Assert.isTrue(start <= end);
-        getSourceViewer().setSelectedRange(start, end - start);
-        getSourceViewer().revealRange(start, end - start);
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                getSourceViewer().setSelectedRange(start, end - start);
+                getSourceViewer().revealRange(start, end - start);
+            }
+        });
     }
 
     public int getColumn(int offset) {
@@ -435,37 +464,53 @@ public class SchemeEditor extends TextEditor {
         replaceText(offset, 0, text);
     }
 
-    public void replaceText(int offset, int length, String text) {
-        try {
-            getDocument().replace(offset, length, text);
-        }
-        catch (BadLocationException exception) {
-        }
-    }
-
-    public void swapText(int offset1, int length1, int offset2, int length2) {
-        startCompoundChange();
-        try {
-            String text1 = getDocument().get(offset1, length1);
-            String text2 = getDocument().get(offset2, length2);
-            getDocument().replace(offset2, length2, text1);
-            getDocument().replace(offset1, length1, text2);
-        }
-        catch (BadLocationException exception) {
-        }
-        endCompoundChange();
+    public void replaceText(final int offset, final int length, final String text) {
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                try {
+                    getDocument().replace(offset, length, text);
+                }
+                catch (BadLocationException exception) {
+                }
+            }
+        });
+    }
+
+    public void swapText(final int offset1, final int length1, final int offset2, final int length2) {
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                startCompoundChange();
+                try {
+                    String text1 = getDocument().get(offset1, length1);
+                    String text2 = getDocument().get(offset2, length2);
+                    getDocument().replace(offset2, length2, text1);
+                    getDocument().replace(offset1, length1, text2);
+                }
+                catch (BadLocationException exception) {
+                }
+                endCompoundChange();
+            }
+        });
     }
 
     public void startCompoundChange() {
-        ITextViewerExtension textViewer = (ITextViewerExtension) getSourceViewer();
-        textViewer.setRedraw(false);
-        getSourceViewerConfiguration().getUndoManager(getSourceViewer()).beginCompoundChange();
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                ITextViewerExtension textViewer = (ITextViewerExtension) getSourceViewer();
+                textViewer.setRedraw(false);
+                getSourceViewerConfiguration().getUndoManager(getSourceViewer()).beginCompoundChange();
+            }
+        });
     }
 
     public void endCompoundChange() {
-        ITextViewerExtension textViewer = (ITextViewerExtension) getSourceViewer();
-        textViewer.setRedraw(true);
-        getSourceViewerConfiguration().getUndoManager(getSourceViewer()).endCompoundChange();
+        KawaProxy.runInDisplayThread(new Runnable() {
+            public void run() {
+                ITextViewerExtension textViewer = (ITextViewerExtension) getSourceViewer();
+                textViewer.setRedraw(true);
+                getSourceViewerConfiguration().getUndoManager(getSourceViewer()).endCompoundChange();
+            }
+        });
     }
 
     public void runCompoundChange(Runnable runnable) {
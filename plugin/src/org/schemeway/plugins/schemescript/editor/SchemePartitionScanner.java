@@ -31,24 +31,125 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 	private static final int STATE_DONE = 6;
 
 	private IDocument mDocument;
+	private DocumentCharBuffer mText = new DocumentCharBuffer();
 	private int mEnd;
 	private int mTokenStart;
 	private int mPosition;
 	private int mState;
+	// the type of the partition continued by the first token, when the scan
+	// resumes inside the partition
+	private String mResumedType;
+
+	private SchemeReader mReader = new SchemeReader();
+	private char[] mTag = new char[32];
+	private int mTagLength;
 
 	public SchemePartitionScanner() {
 
 	}
 
+	/**
+	 * The first token returned starts at <code>partitionOffset</code>, but
+	 * when the state of the scanner at <code>offset</code> can be found from
+	 * the few characters preceding it, the scan resumes at
+	 * <code>offset</code> instead of going over the unchanged start of the
+	 * partition again. The partitioner stops asking for tokens once they match
+	 * the partitions following the damaged region, so an edit in a long block
+	 * comment, string or here-string only costs a scan of the changed text.
+	 */
 	public void setPartialRange(IDocument document, int offset, int length, String contentType, int partitionOffset) {
 		if (partitionOffset >= 0 && contentType != null) {
 			setRange(document, partitionOffset, offset - partitionOffset + length);
+			if (offset > partitionOffset && canResumeScan(contentType)) {
+				try {
+					resumeScan(offset, contentType);
+				}
+				catch (BadLocationException exception) {
+					mResumedType = null;
+					mPosition = partitionOffset;
+				}
+			}
 		}
 		else {
 			setRange(document, offset, length);
 		}
 	}
 
+	/**
+	 * Returns true if the partitions of type <code>contentType</code> are
+	 * scanned by this class, so that the scan can resume inside them.
+	 */
+	protected boolean canResumeScan(String contentType) {
+		return true;
+	}
+
+	private void resumeScan(int offset, String contentType) throws BadLocationException {
+		int start = mPosition;
+		if (contentType.equals(SCHEME_COMMENT)) {
+			// the other comments span a line or a datum
+			if (offset >= start + 3 && mText.charAt(start) == '#' && mText.charAt(start + 1) == '|') {
+				mState = (mText.charAt(offset - 1) == '|') ? STATE_VBAR : STATE_DEFAULT;
+				resumeAt(SCHEME_COMMENT, start, offset);
+			}
+		}
+		else if (contentType.equals(SCHEME_STRING)) {
+			if (mText.charAt(start) == '"') {
+				int position = offset;
+				while (position > start + 1 && mText.charAt(position - 1) == '\\')
+					position--;
+				mState = ((offset - position) % 2 == 1) ? STATE_ESCAPE : STATE_DEFAULT;
+				resumeAt(SCHEME_STRING, start, offset);
+			}
+		}
+		else if (contentType.equals(SCHEME_HERESTRING)) {
+			int tagEnd = readTag(start + 3);
+			if (offset > tagEnd) {
+				// restart at the beginning of the last line read, which may
+				// be the closing tag followed by the damaged line delimiters
+				int position = offset;
+				while (position > tagEnd && isLineDelimiter(mText.charAt(position - 1)))
+					position--;
+				while (position > tagEnd && !isLineDelimiter(mText.charAt(position - 1)))
+					position--;
+				resumeAt(SCHEME_HERESTRING, start, position);
+			}
+		}
+		else if (contentType.equals(IDocument.DEFAULT_CONTENT_TYPE)) {
+			// restart after a character that leaves the scanner in the
+			// default state
+			int position = offset;
+			while (position - 1 > start && !isPlainCharacter(position - 1))
+				position--;
+			if (position - 1 > start)
+				resumeAt(IDocument.DEFAULT_CONTENT_TYPE, start, position);
+		}
+	}
+
+	private void resumeAt(String type, int tokenStart, int position) {
+		mResumedType = type;
+		mTokenStart = tokenStart;
+		mPosition = position;
+	}
+
+	private boolean isPlainCharacter(int position) throws BadLocationException {
+		switch (mText.charAt(position)) {
+		case ';':
+		case '"':
+		case '#':
+		case '\\':
+		case '|':
+		case '<':
+			return false;
+		default: {
+			int savedPosition = mPosition;
+			mPosition = position;
+			boolean end = endOfDefaultPartition();
+			mPosition = savedPosition;
+			return !end;
+		}
+		}
+	}
+
 	public int getTokenLength() {
 		return mPosition - mTokenStart;
 	}
@@ -58,6 +159,9 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 	}
 
 	public IToken nextToken() {
+		if (mResumedType != null) {
+			return continueToken();
+		}
 		if (mPosition >= mEnd) {
 			return Token.EOF;
 		}
@@ -66,6 +170,19 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 		return scanToken();
 	}
 
+	private Token continueToken() {
+		String type = mResumedType;
+		mResumedType = null;
+		if (type == SCHEME_COMMENT)
+			return scanMultilineComment(mState);
+		else if (type == SCHEME_STRING)
+			return scanString(mState);
+		else if (type == SCHEME_HERESTRING)
+			return scanHereStringLines();
+		else
+			return scanDefault();
+	}
+
 	protected Token scanToken() {
 		Token result;
 		switch (lookahead()) {
@@ -73,7 +190,7 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 			consume();
 			if (lookahead() == '|') {
 				consume();
-				result = scanMultilineComment();
+				result = scanMultilineComment(STATE_DEFAULT);
 			}
 			else if (lookahead() == '<') {
 				result = scanHereString();
@@ -92,7 +209,7 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 		}
 		case '"': {
 			consume();
-			result = scanString();
+			result = scanString(STATE_DEFAULT);
 			break;
 		}
 		case ';': {
@@ -118,10 +235,8 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 
 	private Token scanExpression() {
 		consume();
-		SchemeReader reader = new SchemeReader();
-		Region region = reader.nextExpression(mDocument, mPosition, mDocument.getLength());
-		
-		mPosition = region.getOffset() + region.getLength();
+		Region region = mReader.nextExpression(mDocument, mPosition, mEnd);
+		mPosition = Math.min(region.getOffset() + region.getLength(), mEnd);
 
 		return TOKEN_COMMENT;
 	}
@@ -130,45 +245,82 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 		consume();
 		if (lookahead() == '<') {
 			consume();
-			String tag = readToEndOfLine();
-			String nextLine = readToEndOfLine();
-			while (nextLine != null && !nextLine.equals(tag)) {
-				nextLine = readToEndOfLine();
+			try {
+				mPosition = readTag(mPosition);
 			}
-
-			return TOKEN_HERESTRING;
+			catch (BadLocationException exception) {
+				// should NOT happen!
+			}
+			return scanHereStringLines();
 		}
 		else {
 			return scanDefault();
 		}
 	}
 
-	private String readToEndOfLine() {
-		int startPosition = getPosition();
-		if (isEndPosition(startPosition)) {
-			return null;
+	/*
+	 * Copies the tag of a here-string, from position to the end of the line.
+	 * Returns the end of the tag.
+	 */
+	private int readTag(int position) throws BadLocationException {
+		mTagLength = 0;
+		while (position < mEnd) {
+			char ch = mText.charAt(position);
+			if (isLineDelimiter(ch))
+				break;
+			if (mTagLength == mTag.length) {
+				char[] newTag = new char[mTagLength * 2];
+				System.arraycopy(mTag, 0, newTag, 0, mTagLength);
+				mTag = newTag;
+			}
+			mTag[mTagLength++] = ch;
+			position++;
+		}
+		return position;
+	}
+
+	// reads the lines of a here-string, up to the line matching its tag
+	private Token scanHereStringLines() {
+		skipLineDelimiters();
+		while (mPosition < mEnd) {
+			int lineStart = mPosition;
+			while (mPosition < mEnd && !isLineDelimiter(lookahead()))
+				mPosition++;
+			boolean found = isTag(lineStart, mPosition);
+			skipLineDelimiters();
+			if (found)
+				break;
 		}
+		return TOKEN_HERESTRING;
+	}
+
+	private boolean isTag(int start, int end) {
+		if (end - start != mTagLength)
+			return false;
 		try {
-			IRegion lineInfo = mDocument.getLineInformationOfOffset(startPosition);
-			int length = lineInfo.getLength() - (startPosition - lineInfo.getOffset());
-			mPosition = startPosition + length;
-			char ch = lookahead();
-			while (ch == '\n' || ch == '\r') {
-				consume();
-				ch = lookahead();
+			for (int index = 0; index < mTagLength; index++) {
+				if (mText.charAt(start + index) != mTag[index])
+					return false;
 			}
-			return mDocument.get(startPosition, length);
-
+			return true;
 		}
-		catch (BadLocationException e) {
-			return null;
+		catch (BadLocationException exception) {
+			return false;
 		}
+	}
 
+	private void skipLineDelimiters() {
+		while (mPosition < mEnd && isLineDelimiter(lookahead()))
+			mPosition++;
+	}
+
+	private static boolean isLineDelimiter(char ch) {
+		return ch == '\n' || ch == '\r';
 	}
 
-	private Token scanMultilineComment() {
+	private Token scanMultilineComment(int state) {
 		// we assume that the starting #| has already been read.
-		mState = STATE_DEFAULT;
+		mState = state;
 		char ch;
 		while (mPosition < mEnd) {
 			ch = lookahead();
@@ -212,9 +364,9 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 		return TOKEN_COMMENT;
 	}
 
-	private Token scanString() {
+	private Token scanString(int state) {
 		char ch;
-		mState = STATE_DEFAULT;
+		mState = state;
 		while (mPosition < mEnd) {
 			ch = lookahead();
 			if (ch == '"') {
@@ -337,13 +489,15 @@ public class SchemePartitionScanner implements IPartitionTokenScanner {
 
 	public void setRange(IDocument document, int offset, int length) {
 		mDocument = document;
+		mText.reset(document, offset, offset + length);
 		mEnd = offset + length;
 		mPosition = offset;
+		mResumedType = null;
 	}
 
 	protected final char lookahead() {
 		try {
-			return mDocument.getChar(mPosition);
+			return mText.charAt(mPosition);
 		}
 		catch (BadLocationException exception) {
 			// should NOT happen!
@@ -10,6 +10,7 @@ import java.util.*;
 import org.eclipse.jface.text.*;
 import org.eclipse.jface.text.source.*;
 import org.eclipse.ui.texteditor.*;
+import org.schemeway.plugins.schemescript.*;
 import org.schemeway.plugins.schemescript.dictionary.*;
 
 public class SchemeTextHover implements ITextHover {
@@ -51,8 +52,7 @@ public class SchemeTextHover implements ITextHover {
 
 		try {
 			String symbol = document.get(hoverRegion.getOffset(), hoverRegion.getLength());
-			SymbolEntry[] entries = DictionaryUtils.findUserDefinitions(symbol);
-
+			SymbolEntry[] entries = SchemeScriptPlugin.getSymbolResolver().getUserDefinitions(symbol);
 			for (int i = 0; i < entries.length; i++) {
 				String description = entries[i].getDescription();
 				if (!defs.contains(description)) {
@@ -4,7 +4,6 @@
 package org.schemeway.plugins.schemescript.editor;
 
 import org.eclipse.core.resources.*;
-import org.eclipse.core.runtime.*;
 import org.eclipse.jdt.core.*;
 import org.eclipse.jdt.ui.*;
 import org.eclipse.jface.text.*;
@@ -12,6 +11,7 @@ import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.hyperlink.*;
 import org.eclipse.ui.*;
 import org.eclipse.ui.part.*;
+import org.schemeway.plugins.schemescript.*;
 import org.schemeway.plugins.schemescript.dictionary.*;
 
 /**
@@ -37,15 +37,18 @@ public class SymbolHyperlinkDetector implements IHyperlinkDetector {
 
 			String symbol = document.get(symbolRegion.getOffset(), symbolRegion.getLength());
 
-			SymbolEntry[] entries = DictionaryUtils.findUserDefinitions(symbol);
+			SymbolResolver resolver = SchemeScriptPlugin.getSymbolResolver();
+			SymbolEntry[] entries = resolver.getUserDefinitions(symbol);
 			if (entries.length > 0) {
 				return new IHyperlink[] { new SymbolHyperlink(symbolRegion, symbol, entries) };
 			}
 
+			// the Java element is resolved when the hyperlink is opened, so
+			// that detecting it does not block
 			if (isTypeName(symbol)) {
-				IJavaElement javaElement = findJavaElement(symbol.substring(1, symbol.length() - 1));
-				if (javaElement != null) {
-					return new IHyperlink[] { new JavaElementHyperlink(symbolRegion, symbol, javaElement) };
+				String qualifiedName = symbol.substring(1, symbol.length() - 1);
+				if (!resolver.isMissingJavaElement(qualifiedName)) {
+					return new IHyperlink[] { new JavaElementHyperlink(symbolRegion, symbol, qualifiedName) };
 				}
 			}
 		}
@@ -54,34 +57,6 @@ public class SymbolHyperlinkDetector implements IHyperlinkDetector {
 		return null;
 	}
 
-	private IJavaElement findJavaElement(String fullyQualifiedPath) {
-		Path javaPath = new Path(fullyQualifiedPath + ".java");
-		Path classPath = new Path(fullyQualifiedPath + ".class");
-
-		IWorkspace workspace = ResourcesPlugin.getWorkspace();
-		IWorkspaceRoot root = workspace.getRoot();
-		IJavaModel javaModel = JavaCore.create(root);
-
-		IJavaProject[] javaProjects;
-		try {
-			javaProjects = javaModel.getJavaProjects();
-			for (int javaProjectIndex = 0; javaProjectIndex < javaProjects.length; javaProjectIndex++) {
-				IJavaProject javaProject = javaProjects[javaProjectIndex];
-				
-				IJavaElement javaElement = javaProject.findElement(classPath);
-				if (javaElement != null)
-					return javaElement;
-				javaElement = javaProject.findElement(javaPath);
-				if (javaElement != null)
-					return javaElement;
-			}
-		}
-		catch (JavaModelException e) {
-		}
-
-		return null;
-	}
-
 	private boolean isTypeName(String symbol) {
 		return symbol.startsWith("<") && symbol.endsWith(">");
 	}
@@ -126,13 +101,13 @@ public class SymbolHyperlinkDetector implements IHyperlinkDetector {
 	private class JavaElementHyperlink implements IHyperlink {
 		private IRegion mRegion;
 		private String mLabel;
-		private IJavaElement mJavaElement;
+		private String mQualifiedName;
 
-		public JavaElementHyperlink(IRegion region, String label, IJavaElement javaElement) {
+		public JavaElementHyperlink(IRegion region, String label, String qualifiedName) {
 			super();
 			mRegion = region;
 			mLabel = label;
-			mJavaElement = javaElement;
+			mQualifiedName = qualifiedName;
 		}
 
 		public IRegion getHyperlinkRegion() {
@@ -149,7 +124,9 @@ public class SymbolHyperlinkDetector implements IHyperlinkDetector {
 
 		public void open() {
 			try {
-				JavaUI.openInEditor(mJavaElement);
+				IJavaElement javaElement = SchemeScriptPlugin.getSymbolResolver().getJavaElement(mQualifiedName);
+				if (javaElement != null)
+					JavaUI.openInEditor(javaElement);
 			}
 			catch (Exception e) {
 			}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.editor;
+
+import java.util.*;
+
+import org.eclipse.core.resources.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.jdt.core.*;
+import org.eclipse.swt.widgets.*;
+import org.schemeway.plugins.schemescript.*;
+import org.schemeway.plugins.schemescript.dictionary.*;
+import org.schemeway.plugins.schemescript.interpreter.*;
+
+/**
+ * Resolves symbols to their user definitions, and type names to Java
+ * elements, for the hovers and hyperlinks of all the Scheme editors. The
+ * results are cached. The definitions are dropped when a new user
+ * dictionary is published; the Java elements are dropped when the Java
+ * model reports that types, class paths or archives changed.
+ * <p>
+ * The definitions are always resolved immediately, since they are looked up
+ * in the published dictionary. Finding a Java element may open the class
+ * paths of the Java projects, so a lookup that misses the cache in the UI
+ * thread does not block: {@link #isMissingJavaElement(String)} resolves the
+ * element in a background job and answers <code>false</code> until it knows
+ * better.
+ *
+ * @author SchemeWay Project.
+ */
+public final class SymbolResolver implements IElementChangedListener {
+	private static final int CACHE_SIZE = 512;
+	private static final Object NO_ELEMENT = new Object();
+
+	// String -> SymbolEntry[], for the published dictionary mDictionary
+	private Map mDefinitions = new LruMap();
+	private Object mDictionary = null;
+	// String -> IJavaElement, or NO_ELEMENT
+	private Map mJavaElements = new LruMap();
+	// incremented when the Java elements are dropped
+	private int mJavaGeneration = 0;
+
+	// the Java elements waiting for the resolve job
+	private Set mPendingJavaElements = new LinkedHashSet();
+	private Job mResolveJob;
+
+	private SymbolResolver() {
+		mResolveJob = new ResolveJob();
+	}
+
+	public static SymbolResolver createInstance() {
+		SymbolResolver instance = new SymbolResolver();
+		JavaCore.addElementChangedListener(instance, ElementChangedEvent.POST_CHANGE);
+		return instance;
+	}
+
+	public void dispose() {
+		JavaCore.removeElementChangedListener(this);
+		mResolveJob.cancel();
+	}
+
+	/**
+	 * Returns the user definitions of <code>symbol</code>.
+	 */
+	public SymbolEntry[] getUserDefinitions(String symbol) {
+		// null until the initialization files are loaded
+		Object dictionary = KawaProxy.get("*user-dictionary*");
+		synchronized (this) {
+			if (dictionary != mDictionary) {
+				mDefinitions.clear();
+				mDictionary = dictionary;
+			}
+			SymbolEntry[] entries = (SymbolEntry[]) mDefinitions.get(symbol);
+			if (entries != null)
+				return entries;
+		}
+
+		SymbolEntry[] entries = DictionaryUtils.findUserDefinitions(symbol);
+		if (dictionary != null) {
+			synchronized (this) {
+				if (dictionary == mDictionary)
+					mDefinitions.put(symbol, entries);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the Java type or source file named by
+	 * <code>qualifiedName</code> in the Java projects of the workspace, or
+	 * <code>null</code> if there is none.
+	 */
+	public IJavaElement getJavaElement(String qualifiedName) {
+		int generation;
+		synchronized (this) {
+			Object element = mJavaElements.get(qualifiedName);
+			if (element != null)
+				return (element == NO_ELEMENT) ? null : (IJavaElement) element;
+			generation = mJavaGeneration;
+		}
+		return resolveJavaElement(qualifiedName, generation);
+	}
+
+	/**
+	 * Returns true if there is known to be no Java type or source file named
+	 * by <code>qualifiedName</code>. In the UI thread, an element not
+	 * resolved yet is resolved in the background and is not known to be
+	 * missing.
+	 */
+	public boolean isMissingJavaElement(String qualifiedName) {
+		synchronized (this) {
+			Object element = mJavaElements.get(qualifiedName);
+			if (element != null)
+				return element == NO_ELEMENT;
+			if (isDisplayThread()) {
+				mPendingJavaElements.add(qualifiedName);
+				mResolveJob.schedule();
+				return false;
+			}
+		}
+		return getJavaElement(qualifiedName) == null;
+	}
+
+	private IJavaElement resolveJavaElement(String qualifiedName, int generation) {
+		IJavaElement element = findJavaElement(qualifiedName);
+		synchronized (this) {
+			if (generation == mJavaGeneration)
+				mJavaElements.put(qualifiedName, (element == null) ? NO_ELEMENT : element);
+		}
+		return element;
+	}
+
+	private static IJavaElement findJavaElement(String fullyQualifiedPath) {
+		Path javaPath = new Path(fullyQualifiedPath + ".java");
+		Path classPath = new Path(fullyQualifiedPath + ".class");
+
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		IWorkspaceRoot root = workspace.getRoot();
+		IJavaModel javaModel = JavaCore.create(root);
+
+		IJavaProject[] javaProjects;
+		try {
+			javaProjects = javaModel.getJavaProjects();
+			for (int javaProjectIndex = 0; javaProjectIndex < javaProjects.length; javaProjectIndex++) {
+				IJavaProject javaProject = javaProjects[javaProjectIndex];
+
+				IJavaElement javaElement = javaProject.findElement(classPath);
+				if (javaElement != null)
+					return javaElement;
+				javaElement = javaProject.findElement(javaPath);
+				if (javaElement != null)
+					return javaElement;
+			}
+		}
+		catch (JavaModelException e) {
+		}
+
+		return null;
+	}
+
+	private static boolean isDisplayThread() {
+		return Display.getCurrent() != null;
+	}
+
+	public void elementChanged(ElementChangedEvent event) {
+		if (affectsTypes(event.getDelta())) {
+			synchronized (this) {
+				mJavaElements.clear();
+				mJavaGeneration++;
+			}
+		}
+	}
+
+	/*
+	 * Returns true if the delta adds or removes types, or changes where types
+	 * are found. Edits inside a compilation unit do not count.
+	 */
+	private static boolean affectsTypes(IJavaElementDelta delta) {
+		if (delta.getKind() != IJavaElementDelta.CHANGED)
+			return delta.getElement().getElementType() <= IJavaElement.TYPE;
+
+		if (JavaMemberCache.changesClassPath(delta))
+			return true;
+
+		IJavaElementDelta[] children = delta.getAffectedChildren();
+		for (int i = 0; i < children.length; i++) {
+			if (affectsTypes(children[i]))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A map keeping the entries used most recently.
+	 */
+	private static final class LruMap extends LinkedHashMap {
+		LruMap() {
+			super(16, 0.75f, true);
+		}
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > CACHE_SIZE;
+		}
+	}
+
+	/**
+	 * Resolves the Java elements missed in the UI thread.
+	 */
+	private final class ResolveJob extends Job {
+		ResolveJob() {
+			super("Resolving Java types");
+			setSystem(true);
+			setPriority(Job.SHORT);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			while (!monitor.isCanceled()) {
+				String qualifiedName;
+				int generation;
+				synchronized (SymbolResolver.this) {
+					if (mPendingJavaElements.isEmpty())
+						return Status.OK_STATUS;
+					Iterator iterator = mPendingJavaElements.iterator();
+					qualifiedName = (String) iterator.next();
+					iterator.remove();
+					generation = mJavaGeneration;
+				}
+				resolveJavaElement(qualifiedName, generation);
+			}
+			return Status.CANCEL_STATUS;
+		}
+	}
+}
@@ -54,9 +54,13 @@ public final class SexpUtils {
 		}
 	}
 
+	/**
+	 * Returns the region of the complete S-expressions covering [start, end),
+	 * or <code>null</code> if there is none. The delimiters of the region are
+	 * balanced in a single scan; only the outermost delimiters left unmatched
+	 * are then matched in the document.
+	 */
 	public static IRegion findEnclosingSexpressions(IDocument document, int start, int end) {
-		SexpNavigator navigator = new SexpNavigator(document);
-
 		ITypedRegion partition = SchemeTextUtilities.getPartition(document, start);
 		while (partition.getType() == SchemePartitionScanner.SCHEME_COMMENT) {
 			start = partition.getOffset() + partition.getLength();
@@ -71,29 +75,56 @@ public final class SexpUtils {
 		if (start >= end)
 			return null;
 
-		int index = end;
-		while (navigator.upSexpression(index) && navigator.getSexpStart() >= start) {
-			if (!navigator.forwardSexpression(navigator.getSexpStart())) {
-				return null;
-			}
-			index = navigator.getSexpEnd();
-		}
-		if (end == index && navigator.forwardSexpression(end) && navigator.getSexpStart() < end) {
-			end = index = navigator.getSexpEnd();
+		// start the region at its first S-expression, and extend the ends
+		// of the region cutting through an atom or a string
+		SchemeTokenIndex index = SchemeTokenIndex.getIndex(document);
+		int count = index.getTokenCount();
+		int token = index.findToken(start);
+		while (token < count && isBlank(index.getTokenType(token)))
+			token++;
+		if (token < count) {
+			start = index.getTokenOffset(token);
+			if (index.getTokenType(token) == SchemeToken.LPAREN && token > 0 && isPrefix(index.getTokenType(token - 1)))
+				start = index.getTokenOffset(token - 1);
 		}
-		end = index;
+		if (token == count || start >= end)
+			return new Region(end, 0);
+		token = index.findToken(end);
+		if (token < index.getTokenCount() && isAtom(index.getTokenType(token)) && index.getTokenOffset(token) < end)
+			end = index.getTokenOffset(token) + index.getTokenLength(token);
 
-		while (index > start) {
-			if (navigator.backwardSexpression(index) && navigator.getSexpEnd() > start)
-				index = navigator.getSexpStart();
-			else
-				break;
+		DelimiterBalance balance = DelimiterBalance.scan(document, start, end - start);
+		SexpNavigator navigator = new SexpNavigator(document);
+		if (balance.getUnclosedOpen() >= 0) {
+			if (!navigator.forwardSexpression(balance.getUnclosedOpen()))
+				return null;
+			end = navigator.getSexpEnd();
+		}
+		if (balance.getUnmatchedClose() >= 0) {
+			if (!navigator.backwardSexpression(balance.getUnmatchedClose() + 1))
+				return null;
+			start = navigator.getSexpStart();
 		}
-		start = index;
 
 		return new Region(start, end - start);
 	}
 
+	private static boolean isPrefix(int tokenType) {
+		return tokenType == SchemeToken.QUOTE
+			   || tokenType == SchemeToken.BACKQUOTE
+			   || tokenType == SchemeToken.UNQUOTE
+			   || tokenType == SchemeToken.UNQUOTE_SPLICING
+			   || tokenType == SchemeToken.VECTORPREFIX;
+	}
+
+	private static boolean isBlank(int tokenType) {
+		return tokenType == SchemeToken.WSPACE || tokenType == SchemeToken.COMMENT;
+	}
+
+	private static boolean isAtom(int tokenType) {
+		return !isBlank(tokenType) && tokenType != SchemeToken.LPAREN && tokenType != SchemeToken.RPAREN;
+	}
+
 	public static void deleteBackwardSexp(IDocument document, DocumentCommand command) throws BadLocationException {
 		SexpNavigator navigator = new SexpNavigator(document);
 		if (navigator.backwardSexpression(command.offset + 1)) {
@@ -105,72 +136,41 @@ public final class SexpUtils {
 	}
 
 	public static boolean checkCompleteSExpressions(IDocument document, int offset, int length) {
-		try {
-			int startOffset = offset;
-			int endOffset = offset + length;
-			ITypedRegion partition;
-
-			// if the start of the region is inside a comment, go to the start
-			// of the comment partition
-			partition = SchemeTextUtilities.getPartition(document, startOffset);
-			if (partition != null) {
-
-				if (partition.getType() == SchemePartitionScanner.SCHEME_COMMENT && partition.getOffset() < startOffset) {
-					startOffset = partition.getOffset();
-				}
-				else if (SchemePartitionScanner.isStringPartition(partition.getType())
-						&& startOffset != partition.getOffset()) {
-					return false;
-				}
-			}
+		int startOffset = offset;
+		int endOffset = offset + length;
+		ITypedRegion partition;
 
-			// if the end of the region is inside a comment, move the end just
-			// before the comment partition
-			partition = SchemeTextUtilities.getPartition(document, endOffset);
-			if (partition != null) {
-				if (partition.getType() == SchemePartitionScanner.SCHEME_COMMENT && endOffset > partition.getOffset()) {
-					endOffset = partition.getOffset();
-				}
-				else if (SchemePartitionScanner.isStringPartition(partition.getType())
-						&& endOffset != partition.getOffset()) {
-					return false;
-				}
-			}
+		// if the start of the region is inside a comment, go to the start
+		// of the comment partition
+		partition = SchemeTextUtilities.getPartition(document, startOffset);
+		if (partition != null) {
 
-			SchemeScanner scanner = new SchemeScanner();
-			scanner.setRange(document, startOffset, endOffset - startOffset);
-			int level = 0;
-			SchemeToken token = scanner.nextToken();
-			while (token != SchemeToken.EOF) {
-				switch (token.getType()) {
-				case SchemeToken.LPAREN: {
-					level++;
-					break;
-				}
-				case SchemeToken.RPAREN: {
-					level--;
-					if (level < 0)
-						return false;
-					break;
-				}
-				case SchemeToken.ERROR: {
-					int tokenOffset = token.getOffset();
-					if (document.getChar(tokenOffset) == '"'
-							|| (document.getChar(tokenOffset) == '#' && document.getChar(tokenOffset + 1) == '|'))
-						return false;
-				}
-				}
-				token = scanner.nextToken();
+			if (partition.getType() == SchemePartitionScanner.SCHEME_COMMENT && partition.getOffset() < startOffset) {
+				startOffset = partition.getOffset();
+			}
+			else if (SchemePartitionScanner.isStringPartition(partition.getType())
+					&& startOffset != partition.getOffset()) {
+				return false;
 			}
-			return (level == 0);
 		}
-		catch (BadLocationException e) {
+
+		// if the end of the region is inside a comment, move the end just
+		// before the comment partition
+		partition = SchemeTextUtilities.getPartition(document, endOffset);
+		if (partition != null) {
+			if (partition.getType() == SchemePartitionScanner.SCHEME_COMMENT && endOffset > partition.getOffset()) {
+				endOffset = partition.getOffset();
+			}
+			else if (SchemePartitionScanner.isStringPartition(partition.getType())
+					&& endOffset != partition.getOffset()) {
+				return false;
+			}
 		}
 
-		return false;
+		return DelimiterBalance.scan(document, startOffset, endOffset - startOffset).isBalanced();
 	}
 
 	public static boolean checkCompleteSExpressions(String text) {
-		return checkCompleteSExpressions(new Document(text), 0, text.length());
+		return DelimiterBalance.scan(text).isBalanced();
 	}
 }
\ No newline at end of file
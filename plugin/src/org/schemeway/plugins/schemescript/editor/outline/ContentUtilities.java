@@ -31,7 +31,6 @@ public final class ContentUtilities {
 
 	public static OutlineNode createNodeForEntry(IDocument document, SymbolEntry entry) throws BadLocationException {
 		Position position = new Position(entry.getOffset(), entry.getLength());
-		document.addPosition(position);
 		OutlineNode node = OutlineNode.createDefinition(createNodeName(entry), position, 0);
 		return node;
 	}
@@ -85,13 +84,25 @@ public final class ContentUtilities {
 
 	public static void addSections(IDocument document, List nodes) throws BadLocationException, BadPositionCategoryException
 	{
-	    Position position;
-	    int offset = 0;
-	    int documentLength = document.getLength();
-	    while (offset < documentLength) {
-	        ITypedRegion partition = SchemeTextUtilities.getPartition(document, offset);
+		addSections(document, 0, document.getLength(), nodes);
+	}
+
+	/**
+	 * Adds the sections whose comment lies in the given region of the
+	 * document. The positions of the sections are not added to the document.
+	 */
+	public static void addSections(IDocument document, int regionOffset, int regionLength, List nodes) throws BadLocationException
+	{
+	    ITypedRegion[] partitions = TextUtilities.computePartitioning(document,
+	                                                                  SchemeDocumentSetupParticipant.SCHEME_PARTITIONING,
+	                                                                  regionOffset,
+	                                                                  regionLength,
+	                                                                  false);
+	    for (int index = 0; index < partitions.length; index++) {
+	        ITypedRegion partition = partitions[index];
 	        if (partition.getType() == SchemePartitionScanner.SCHEME_COMMENT) {
-	            String text = document.get(partition.getOffset(), partition.getLength());
+	            int offset = partition.getOffset();
+	            String text = document.get(offset, partition.getLength());
 	            text = text.trim();
 	            if (text.startsWith(CHAPTER_PREFIX) && !(text.equals(MENU_DELIMITER))) {
 	            	// find sectioning level
@@ -106,8 +117,7 @@ public final class ContentUtilities {
 	                while (titleOffset < textLength && Character.isWhitespace(text.charAt(titleOffset))) {
 	                	titleOffset ++;
 	                }
-	                position = new Position(offset + titleOffset, text.length() - (4 + level));
-	                document.addPosition(SECTION_CATEGORY, position);
+	                Position position = new Position(offset + titleOffset, text.length() - (4 + level));
 	                
 	                if (level == 1) {
 	                	OutlineNode newSection = OutlineNode.createChapter(text.substring(titleOffset), position, level);
@@ -119,7 +129,6 @@ public final class ContentUtilities {
 	                }
 	            }
 	        }
-	        offset += partition.getLength();
 	    }
 	}
 
@@ -5,72 +5,105 @@
  */
 package org.schemeway.plugins.schemescript.editor.outline;
 
+import java.util.*;
+
 import org.eclipse.jface.text.*;
 import org.eclipse.jface.viewers.*;
 import org.eclipse.swt.widgets.*;
 import org.eclipse.ui.views.contentoutline.*;
 import org.schemeway.plugins.schemescript.editor.*;
 
+/**
+ * The outline of a Scheme editor. The tree is kept between updates: a new
+ * version of the outline is compared with the displayed one, and only the
+ * nodes that changed are removed from or added to the viewer, so the
+ * expansion state and the selection are preserved.
+ * <p>
+ * On save, the whole outline is rebuilt. While the document is edited, the
+ * outline is updated after an idle delay: only the sections in the modified
+ * region are scanned again, the other nodes follow the edits through their
+ * positions.
+ */
 public class SchemeOutlinePage extends ContentOutlinePage implements ISchemeOutlinePage {
-    
-    
+
+    private static final int UPDATE_DELAY = 1000;
+
     private OutlineContentBuilder mContentBuilder = new SectionsAndDefinitionsContentBuilder();
     private SchemeEditor mEditor;
-    
+    private IDocument mDocument;
+    private OutlineNode mRoot;
+
     private IPositionUpdater mPositionUpdater = new DefaultPositionUpdater(ContentUtilities.SECTION_CATEGORY);
-    
-    
+
+    // the region modified since the last update, -1 if none
+    private int mChangeStart = -1;
+    private int mChangeEnd = -1;
+
+    private IDocumentListener mDocumentListener = new IDocumentListener() {
+        public void documentAboutToBeChanged(DocumentEvent event) {
+        }
+
+        public void documentChanged(DocumentEvent event) {
+            recordChange(event);
+            scheduleUpdate();
+        }
+    };
+
+    private Runnable mUpdateRunnable = new Runnable() {
+        public void run() {
+            updateChangedRegion();
+        }
+    };
+
+
     public SchemeOutlinePage(SchemeEditor editor) {
         super();
         mEditor = editor;
     }
-    
+
     public void createControl(Composite parent) {
         super.createControl(parent);
-        
+
         TreeViewer viewer = getTreeViewer();
         viewer.setContentProvider(new OutlineNodeContentProvider());
         viewer.setLabelProvider(new NodeLabelProvider());
-        OutlineNode tree = createTree();
-        viewer.setInput(tree);
+        connect(mEditor.getDocument());
+        viewer.setInput(mRoot);
         Tree treeControl = (Tree) viewer.getControl();
-        if (tree.size() > 0) {
+        if (mRoot.size() > 0) {
         	TreeItem item = treeControl.getItem(0);
         	treeControl.setSelection(new TreeItem[] { item });
         }
         viewer.expandAll();
     }
-    
-    private OutlineNode createTree() {
-        OutlineNode root = null;
-        try {
-            IDocument document = mEditor.getDocument();
 
-            cleanPositions(document);
-            document.addPositionUpdater(mPositionUpdater);
-            document.addPositionCategory(ContentUtilities.SECTION_CATEGORY);
-            
-            root = createRoot(document);
+    public void dispose() {
+        disconnect();
+        super.dispose();
+    }
 
-            OutlineNode[] nodes = mContentBuilder.buildNodes(mEditor);
-            ContentUtilities.populateTree(root, nodes);
-        }
-        catch (BadLocationException exception) {
+    private void connect(IDocument document) {
+        mDocument = document;
+        document.addPositionCategory(ContentUtilities.SECTION_CATEGORY);
+        document.addPositionUpdater(mPositionUpdater);
+        document.addDocumentListener(mDocumentListener);
+        mRoot = OutlineNode.createChapter("Root", new Position(0, 0), 0);
+        mergeChildren(mRoot, buildTree(), null);
+    }
+
+    private void disconnect() {
+        Control control = getControl();
+        if (control != null && !control.isDisposed()) {
+            control.getDisplay().timerExec(-1, mUpdateRunnable);
         }
-        catch (BadPositionCategoryException exception) {
+        if (mDocument != null) {
+            mDocument.removeDocumentListener(mDocumentListener);
+            cleanPositions(mDocument);
+            mDocument = null;
         }
-        return root;
+        mChangeStart = mChangeEnd = -1;
     }
 
-	private OutlineNode createRoot(IDocument document) throws BadLocationException, BadPositionCategoryException {
-		OutlineNode root;
-		Position position;
-		position = new Position(0,0);
-		document.addPosition(ContentUtilities.SECTION_CATEGORY, position);
-		root = OutlineNode.createChapter("Root", position, 0);
-		return root;
-	}
-
     private void cleanPositions(IDocument document)
     {
         try {
@@ -83,12 +116,269 @@ public class SchemeOutlinePage extends ContentOutlinePage implements ISchemeOutl
 
     public void update() {
         TreeViewer viewer = getTreeViewer();
+        if (viewer == null)
+            return;
+
+        IDocument document = mEditor.getDocument();
+        if (document != mDocument) {
+            // new editor input
+            disconnect();
+            viewer.getControl().setRedraw(false);
+            connect(document);
+            viewer.setInput(mRoot);
+            viewer.expandAll();
+            viewer.getControl().setRedraw(true);
+            return;
+        }
+
+        viewer.getControl().getDisplay().timerExec(-1, mUpdateRunnable);
+        mChangeStart = mChangeEnd = -1;
+        patchTree(buildTree());
+    }
+
+    private OutlineNode buildTree() {
+        OutlineNode root = OutlineNode.createChapter("Root", new Position(0, 0), 0);
+        try {
+            ContentUtilities.populateTree(root, mContentBuilder.buildNodes(mEditor));
+        }
+        catch (BadLocationException exception) {
+        }
+        catch (BadPositionCategoryException exception) {
+        }
+        return root;
+    }
+
+    //
+    //// Live updates
+    //
+
+    private void recordChange(DocumentEvent event) {
+        int offset = event.getOffset();
+        int textLength = (event.getText() == null) ? 0 : event.getText().length();
+        if (mChangeStart < 0) {
+            mChangeStart = offset;
+            mChangeEnd = offset + textLength;
+        }
+        else {
+            if (mChangeEnd >= offset + event.getLength())
+                mChangeEnd += textLength - event.getLength();
+            mChangeStart = Math.min(mChangeStart, offset);
+            mChangeEnd = Math.max(mChangeEnd, offset + textLength);
+        }
+    }
+
+    private void scheduleUpdate() {
+        Control control = getControl();
+        if (control == null || control.isDisposed())
+            return;
+        final Display display = control.getDisplay();
+        if (Display.getCurrent() == display) {
+            // restarts the delay if an update is already scheduled
+            display.timerExec(UPDATE_DELAY, mUpdateRunnable);
+        }
+        else {
+            display.asyncExec(new Runnable() {
+                public void run() {
+                    if (!display.isDisposed())
+                        display.timerExec(UPDATE_DELAY, mUpdateRunnable);
+                }
+            });
+        }
+    }
+
+    private void updateChangedRegion() {
+        Control control = getControl();
+        if (control == null || control.isDisposed() || mDocument == null || mChangeStart < 0)
+            return;
+
+        IDocument document = mDocument;
+        int start = mChangeStart;
+        int end = mChangeEnd;
+        mChangeStart = mChangeEnd = -1;
+
+        List nodes = new ArrayList();
+        try {
+            // the region covers whole lines and whole comments
+            int length = document.getLength();
+            start = Math.min(start, length);
+            end = Math.min(end, length);
+            start = document.getLineInformationOfOffset(start).getOffset();
+            IRegion lastLine = document.getLineInformationOfOffset(end);
+            end = lastLine.getOffset() + lastLine.getLength();
+            ITypedRegion partition = SchemeTextUtilities.getPartition(document, start);
+            if (partition != null && partition.getType() == SchemePartitionScanner.SCHEME_COMMENT)
+                start = partition.getOffset();
+
+            collectUnchangedNodes(mRoot, start, end, nodes);
+            ContentUtilities.addSections(document, start, end - start, nodes);
+        }
+        catch (BadLocationException exception) {
+            return;
+        }
+        Collections.sort(nodes, ContentUtilities.NODE_COMPARATOR);
+
+        OutlineNode root = OutlineNode.createChapter("Root", new Position(0, 0), 0);
+        ContentUtilities.populateTree(root, (OutlineNode[]) nodes.toArray(new OutlineNode[nodes.size()]));
+        patchTree(root);
+    }
+
+    /*
+     * Collects copies of the sections outside of the modified region, and of
+     * the top-level definitions. Definitions only change on save, when the
+     * dictionary is updated.
+     */
+    private static void collectUnchangedNodes(OutlineNode node, int start, int end, List nodes) {
+        for (Iterator iterator = node.children.iterator(); iterator.hasNext();) {
+            OutlineNode child = (OutlineNode) iterator.next();
+            Position position = child.position;
+            if (child.type == OutlineNode.DEFINITION) {
+                if (!position.isDeleted())
+                    nodes.add(copyDefinition(child));
+            }
+            else {
+                if (!position.isDeleted() && (position.offset < start || position.offset > end))
+                    nodes.add(copyNode(child));
+                collectUnchangedNodes(child, start, end, nodes);
+            }
+        }
+    }
+
+    private static OutlineNode copyNode(OutlineNode node) {
+        Position position = new Position(node.position.offset, node.position.length);
+        return new OutlineNode(node.type, node.name, position, node.level);
+    }
+
+    private static OutlineNode copyDefinition(OutlineNode node) {
+        OutlineNode copy = copyNode(node);
+        for (Iterator iterator = node.children.iterator(); iterator.hasNext();) {
+            OutlineNode child = (OutlineNode) iterator.next();
+            if (!child.position.isDeleted())
+                copy.addSubsection(copyDefinition(child));
+        }
+        return copy;
+    }
+
+    //
+    //// Tree patching
+    //
+
+    private void patchTree(OutlineNode newRoot) {
+        TreeViewer viewer = getTreeViewer();
+        List addedNodes = new ArrayList();
         viewer.getControl().setRedraw(false);
-        getTreeViewer().setInput(createTree());
-        viewer.expandAll();
-        viewer.getControl().setRedraw(true);
+        try {
+            mergeChildren(mRoot, newRoot, addedNodes);
+            for (Iterator iterator = addedNodes.iterator(); iterator.hasNext();) {
+                viewer.expandToLevel(iterator.next(), AbstractTreeViewer.ALL_LEVELS);
+            }
+        }
+        finally {
+            viewer.getControl().setRedraw(true);
+        }
+    }
+
+    /*
+     * Makes the children of node match the ones of newNode. The children
+     * found in both trees are kept, with their positions updated. The
+     * viewer is refreshed under the nodes whose children changed, and the
+     * nodes added are collected in addedNodes (when it is not null).
+     */
+    private void mergeChildren(OutlineNode node, OutlineNode newNode, List addedNodes) {
+        List children = new ArrayList(node.children);
+        List merged = new ArrayList(newNode.children.size());
+        boolean changed = false;
+        int cursor = 0;
+
+        for (Iterator iterator = newNode.children.iterator(); iterator.hasNext();) {
+            OutlineNode newChild = (OutlineNode) iterator.next();
+            int match = -1;
+            for (int index = cursor; index < children.size(); index++) {
+                if (isSameNode((OutlineNode) children.get(index), newChild)) {
+                    match = index;
+                    break;
+                }
+            }
+
+            if (match >= 0) {
+                for (int index = cursor; index < match; index++) {
+                    removePositions((OutlineNode) children.get(index));
+                    changed = true;
+                }
+                cursor = match + 1;
+                OutlineNode child = (OutlineNode) children.get(match);
+                movePosition(child.position, newChild.position);
+                mergeChildren(child, newChild, addedNodes);
+                merged.add(child);
+            }
+            else {
+                newChild.parent = node;
+                addPositions(newChild);
+                merged.add(newChild);
+                if (addedNodes != null)
+                    addedNodes.add(newChild);
+                changed = true;
+            }
+        }
+        for (int index = cursor; index < children.size(); index++) {
+            removePositions((OutlineNode) children.get(index));
+            changed = true;
+        }
+
+        if (changed) {
+            node.children.clear();
+            node.children.addAll(merged);
+            if (addedNodes != null)
+                getTreeViewer().refresh(node, false);
+        }
+    }
+
+    private static boolean isSameNode(OutlineNode node, OutlineNode newNode) {
+        return node.type == newNode.type && node.level == newNode.level && node.name.equals(newNode.name);
+    }
+
+    private void movePosition(Position position, Position newPosition) {
+        if (position.isDeleted() || position.offset != newPosition.offset || position.length != newPosition.length) {
+            // the positions of a category are sorted: remove and add again
+            removePosition(position);
+            position.offset = newPosition.offset;
+            position.length = newPosition.length;
+            position.isDeleted = false;
+            addPosition(position);
+        }
+    }
+
+    private void addPositions(OutlineNode node) {
+        addPosition(node.position);
+        for (Iterator iterator = node.children.iterator(); iterator.hasNext();) {
+            addPositions((OutlineNode) iterator.next());
+        }
     }
-    
+
+    private void removePositions(OutlineNode node) {
+        removePosition(node.position);
+        for (Iterator iterator = node.children.iterator(); iterator.hasNext();) {
+            removePositions((OutlineNode) iterator.next());
+        }
+    }
+
+    private void addPosition(Position position) {
+        try {
+            mDocument.addPosition(ContentUtilities.SECTION_CATEGORY, position);
+        }
+        catch (BadLocationException exception) {
+        }
+        catch (BadPositionCategoryException exception) {
+        }
+    }
+
+    private void removePosition(Position position) {
+        try {
+            mDocument.removePosition(ContentUtilities.SECTION_CATEGORY, position);
+        }
+        catch (BadPositionCategoryException exception) {
+        }
+    }
+
     public void selectionChanged(SelectionChangedEvent event) {
         super.selectionChanged(event);
 
@@ -5,12 +5,17 @@
  */
 package org.schemeway.plugins.schemescript.indentation;
 
+import java.util.*;
+
+import org.schemeway.plugins.schemescript.dictionary.*;
 import org.schemeway.plugins.schemescript.parser.*;
 
 public class SchemeIndentationContext {
     private SexpNavigator mExplorer;
     private SchemeIndentationManager mManager;
     private int mOffset;
+    // String -> Boolean, for the life of the context
+    private Map mUserDefinitions = new HashMap();
 
     public SchemeIndentationContext(SexpNavigator explorer, SchemeIndentationManager manager, int offset) {
         this.mExplorer = explorer;
@@ -41,4 +46,18 @@ public class SchemeIndentationContext {
     public void setOffset(int offset) {
         mOffset = offset;
     }
+
+    /**
+     * Tells if the user dictionary defines <code>symbol</code>. A context is
+     * created for each indentation operation, so the dictionary is only
+     * queried once per symbol when a whole region is indented.
+     */
+    public boolean hasUserDefinitions(String symbol) {
+        Boolean defined = (Boolean) mUserDefinitions.get(symbol);
+        if (defined == null) {
+            defined = Boolean.valueOf(DictionaryUtils.findUserDefinitions(symbol).length > 0);
+            mUserDefinitions.put(symbol, defined);
+        }
+        return defined.booleanValue();
+    }
 }
\ No newline at end of file
@@ -9,7 +9,6 @@ import org.eclipse.core.runtime.Assert;
 import org.eclipse.jface.preference.*;
 import org.eclipse.jface.text.*;
 import org.schemeway.plugins.schemescript.*;
-import org.schemeway.plugins.schemescript.dictionary.*;
 import org.schemeway.plugins.schemescript.parser.*;
 import org.schemeway.plugins.schemescript.preferences.*;
 
@@ -109,8 +108,7 @@ public class SchemeIndentationStrategy implements IAutoEditStrategy {
                     String text = explorer.getText();
                     IndentationRule scheme = context.getManager().getFunction(text);
 
-                    indentation = findIndentationFromScheme(context.getExplorer(),
-                                                            context.getOffset(),
+                    indentation = findIndentationFromScheme(context,
                                                             previousStart,
                                                             outerStart,
                                                             scheme,
@@ -139,8 +137,7 @@ public class SchemeIndentationStrategy implements IAutoEditStrategy {
         return firstCh == '\'' || firstCh == '`' || firstCh == '#';
     }
 
-    private static int findIndentationFromScheme(SexpNavigator explorer,
-                                                 int insertionOffset,
+    private static int findIndentationFromScheme(SchemeIndentationContext context,
                                                  int previousStart,
                                                  int outerStart,
                                                  IndentationRule scheme,
@@ -148,6 +145,7 @@ public class SchemeIndentationStrategy implements IAutoEditStrategy {
                                                  boolean constantList) throws BadLocationException {
         int indentation;
         String type = scheme.getCategory();
+        SexpNavigator explorer = context.getExplorer();
         IDocument document = explorer.getDocument();
 
         if (type == IndentationRule.DEFAULT) {
@@ -159,7 +157,7 @@ public class SchemeIndentationStrategy implements IAutoEditStrategy {
                 previousStart = offset;
                 offset = explorer.getSexpStart();
             }
-            if (DictionaryUtils.findUserDefinitions(symbolText).length == 0) {
+            if (!context.hasUserDefinitions(symbolText)) {
                 indentation = findColumn(document, outerStart) + 1;
             } else {
                 indentation = findColumn(document, previousStart);
@@ -172,7 +170,7 @@ public class SchemeIndentationStrategy implements IAutoEditStrategy {
             indentation = findColumn(document, outerStart) + 4;
         } else if (type == IndentationRule.WITH) {
             int previousCount = 0;
-            int offset = insertionOffset;
+            int offset = context.getOffset();
 
             while (explorer.backwardSexpression(offset)) {
                 offset = explorer.getSexpStart();
@@ -189,14 +187,15 @@ public class SchemeIndentationStrategy implements IAutoEditStrategy {
         return indentation;
     }
 
-    private static int findColumn(IDocument document, int offset) throws BadLocationException {
+    static int findColumn(IDocument document, int offset) throws BadLocationException {
         IRegion info = document.getLineInformationOfOffset(offset);
         int tabWidth = SchemePreferences.getTabWidth();
 
+        // read the start of the line at once
+        String text = document.get(info.getOffset(), offset - info.getOffset());
         int indent = 0;
-        int index = info.getOffset();
-        while (index < offset) {
-            char ch = document.getChar(index++);
+        for (int index = 0; index < text.length(); index++) {
+            char ch = text.charAt(index);
             if (ch == '\t')
                 indent += tabWidth;
             else
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.indentation;
+
+import org.eclipse.jface.text.*;
+import org.schemeway.plugins.schemescript.parser.*;
+
+/**
+ * Computes the indentation of the consecutive lines of a region in a single
+ * forward pass over the tokens of the document. The indenter keeps a stack
+ * of the lists that are open at the current line, with the head and the
+ * element starts of each list, so the indentation of a line does not walk
+ * the document backward. It gives the same results as
+ * {@link SchemeIndentationStrategy#findIndentation(SchemeIndentationContext)}.
+ * <p>
+ * Lines must be requested in increasing order. The document may be modified
+ * between two requests, but only at or after the start of the last line
+ * requested, as the formatter does when it re-indents the line.
+ *
+ * @author SchemeWay Project.
+ */
+public final class SchemeRegionIndenter {
+
+	private static final int HEAD_NONE = 0;
+	private static final int HEAD_PREFIX = 1;
+	private static final int HEAD_DONE = 2;
+
+	/*
+	 * An open list, or the top level of the document.
+	 */
+	private static final class Frame {
+		final Frame parent;
+		// offset of the opening delimiter, -1 for the top level
+		final int open;
+
+		// the starts of the elements read so far, as found by moving
+		// backward from the end of the list
+		int[] elements = new int[8];
+		int elementCount = 0;
+
+		// the first element, as found by moving forward from the opening
+		// delimiter
+		int headState = HEAD_NONE;
+		int headType = SexpNavigator.TYPE_ERROR;
+		int headOffset;
+		int headLength;
+
+		Frame(Frame parent, int open) {
+			this.parent = parent;
+			this.open = open;
+		}
+
+		void addElement(int offset) {
+			if (elementCount == elements.length) {
+				int[] newElements = new int[elementCount * 2];
+				System.arraycopy(elements, 0, newElements, 0, elementCount);
+				elements = newElements;
+			}
+			elements[elementCount++] = offset;
+		}
+	}
+
+	private final IDocument mDocument;
+	private final SchemeIndentationContext mContext;
+	private final SchemeTokenIndex mIndex;
+
+	private Frame mFrame;
+	// the tokens before this offset have been read
+	private int mPosition;
+	// the type and length of the last token read, comments excepted
+	private int mLastType = SchemeToken.WSPACE;
+	private int mLastLength = 0;
+	// set when a closing delimiter has no opening one: the stack cannot be
+	// trusted anymore
+	private boolean mUnbalanced = false;
+
+	/**
+	 * Creates an indenter for the lines starting at <code>offset</code>.
+	 */
+	public SchemeRegionIndenter(IDocument document, SchemeIndentationContext context, int offset) {
+		mDocument = document;
+		mContext = context;
+		mIndex = SchemeTokenIndex.getIndex(document);
+		mFrame = new Frame(null, -1);
+
+		// start from a point where no list is open
+		int last = (offset <= 0) ? -1 : mIndex.findToken(offset - 1);
+		SexpNavigator explorer = context.getExplorer();
+		if (mIndex.getOpenListCount(last) == 0) {
+			mPosition = offset;
+			if (explorer.backwardSexpression(offset))
+				mFrame.addElement(explorer.getSexpStart());
+			while (last >= 0 && mIndex.getTokenType(last) == SchemeToken.COMMENT)
+				last--;
+			if (last >= 0) {
+				mLastType = mIndex.getTokenType(last);
+				mLastLength = mIndex.getTokenLength(last);
+			}
+		}
+		else if (explorer.topLevelSexpression(offset)) {
+			mPosition = explorer.getSexpStart();
+		}
+		else {
+			mPosition = 0;
+		}
+	}
+
+	/**
+	 * Returns the indentation of the line starting at <code>lineOffset</code>.
+	 */
+	public int findIndentation(int lineOffset) throws BadLocationException {
+		readTokens(lineOffset);
+		if (mUnbalanced) {
+			mContext.setOffset(lineOffset);
+			return SchemeIndentationStrategy.findIndentation(mContext);
+		}
+
+		Frame frame = mFrame;
+		if (frame.elementCount == 0) {
+			if (frame.open < 0)
+				return 0;
+			else
+				return SchemeIndentationStrategy.findColumn(mDocument, frame.open) + 1;
+		}
+
+		int previousStart = frame.elements[frame.elementCount - 1];
+		if (frame.open < 0)
+			return SchemeIndentationStrategy.findColumn(mDocument, previousStart);
+
+		// skip the vector prefix of the opening delimiter
+		int outerStart = frame.open;
+		char ch = mDocument.getChar(outerStart);
+		while (!SchemeScannerUtilities.isOpeningParenthesis(ch)) {
+			outerStart++;
+			ch = mDocument.getChar(outerStart);
+		}
+		int outerColumn = SchemeIndentationStrategy.findColumn(mDocument, outerStart);
+		if (SchemeScannerUtilities.isOpeningBracket(ch))
+			return outerColumn + 1;
+
+		if (frame.headState == HEAD_PREFIX)
+			readHeadAfterPrefix(frame);
+		int headType = frame.headType;
+		if (headType == SexpNavigator.TYPE_SYMBOL) {
+			String text = mDocument.get(frame.headOffset, frame.headLength);
+			IndentationRule rule = mContext.getManager().getFunction(text);
+			return findIndentationFromRule(frame, outerColumn, rule, text, previousStart);
+		}
+		else if (headType == SexpNavigator.TYPE_LIST || headType == SexpNavigator.TYPE_CONSTANT
+				|| headType == SexpNavigator.TYPE_STRING) {
+			return SchemeIndentationStrategy.findColumn(mDocument, frame.headOffset);
+		}
+		else
+			return SchemeIndentationStrategy.findColumn(mDocument, previousStart);
+	}
+
+	private int findIndentationFromRule(Frame frame, int outerColumn, IndentationRule rule, String symbolText,
+			int previousStart) throws BadLocationException {
+		String type = rule.getCategory();
+
+		if (type == IndentationRule.DEFAULT) {
+			if (!mContext.hasUserDefinitions(symbolText))
+				return outerColumn + 1;
+
+			// align with the first element, after the head, on the line of the
+			// previous element
+			int lineStart = mDocument.getLineInformationOfOffset(previousStart).getOffset();
+			int index = frame.elementCount - 1;
+			while (index > 0 && frame.elements[index] > lineStart) {
+				previousStart = frame.elements[index];
+				index--;
+			}
+			return SchemeIndentationStrategy.findColumn(mDocument, previousStart);
+		}
+		else if (type == IndentationRule.NONE) {
+			return outerColumn;
+		}
+		else if (type == IndentationRule.SEQUENCE || type == IndentationRule.DEFINITION) {
+			return outerColumn + 2;
+		}
+		else if (type == IndentationRule.IF) {
+			return outerColumn + 4;
+		}
+		else if (type == IndentationRule.WITH) {
+			if (frame.elementCount > rule.getHint())
+				return outerColumn + 2;
+			else
+				return outerColumn + 4;
+		}
+		else
+			return SchemeIndentationStrategy.findColumn(mDocument, previousStart);
+	}
+
+	/*
+	 * Completes the head of a list starting with a prefix at the end of the
+	 * previous line. The token following the prefix is on the current line,
+	 * and may change when the line is re-indented: the head is computed again
+	 * when the token is read.
+	 */
+	private void readHeadAfterPrefix(Frame frame) {
+		frame.headType = SexpNavigator.TYPE_ERROR;
+		int count = mIndex.getTokenCount();
+		for (int index = mIndex.findToken(mPosition); index < count; index++) {
+			int type = mIndex.getTokenType(index);
+			if (type == SchemeToken.COMMENT)
+				continue;
+			if (type == SchemeToken.LPAREN) {
+				frame.headType = SexpNavigator.TYPE_LIST;
+			}
+			else if (type != SchemeToken.WSPACE && type != SchemeToken.RPAREN) {
+				frame.headType = translateType(type);
+				frame.headOffset = mIndex.getTokenOffset(index);
+				frame.headLength = mIndex.getTokenLength(index);
+			}
+			return;
+		}
+	}
+
+	/*
+	 * Reads the tokens up to lineOffset. The whitespace and comments
+	 * overlapping lineOffset are left unread, since the line indentation may
+	 * change them.
+	 */
+	private void readTokens(int lineOffset) {
+		int count = mIndex.getTokenCount();
+		int index = mIndex.findToken(mPosition);
+		while (index < count && !mUnbalanced) {
+			int offset = mIndex.getTokenOffset(index);
+			int length = mIndex.getTokenLength(index);
+			int type = mIndex.getTokenType(index);
+			if (offset >= lineOffset)
+				break;
+			if (offset >= mPosition) {
+				if ((type == SchemeToken.WSPACE || type == SchemeToken.COMMENT) && offset + length > lineOffset)
+					break;
+				readToken(type, offset, length);
+				mPosition = offset + length;
+			}
+			index++;
+		}
+	}
+
+	private void readToken(int type, int offset, int length) {
+		if (type == SchemeToken.COMMENT)
+			return;
+
+		Frame frame = mFrame;
+		if (type == SchemeToken.WSPACE) {
+			if (frame.headState == HEAD_PREFIX) {
+				frame.headType = SexpNavigator.TYPE_ERROR;
+				frame.headState = HEAD_DONE;
+			}
+		}
+		else if (type == SchemeToken.LPAREN) {
+			if (frame.headState != HEAD_DONE) {
+				if (frame.headState == HEAD_NONE)
+					frame.headOffset = offset;
+				frame.headType = SexpNavigator.TYPE_LIST;
+				frame.headState = HEAD_DONE;
+			}
+			// the list and its prefix form a single element
+			int start = offset;
+			if (isSyntacticPrefix(mLastType)) {
+				start -= mLastLength;
+				frame.elementCount--;
+			}
+			frame.addElement(start);
+			mFrame = new Frame(frame, offset);
+		}
+		else if (type == SchemeToken.RPAREN) {
+			if (frame.parent == null)
+				mUnbalanced = true;
+			else
+				mFrame = frame.parent;
+		}
+		else {
+			if (frame.headState == HEAD_NONE && isSyntacticPrefix(type)) {
+				frame.headOffset = offset;
+				frame.headState = HEAD_PREFIX;
+			}
+			else if (frame.headState != HEAD_DONE) {
+				frame.headType = translateType(type);
+				frame.headOffset = offset;
+				frame.headLength = length;
+				frame.headState = HEAD_DONE;
+			}
+			frame.addElement(offset);
+		}
+		mLastType = type;
+		mLastLength = length;
+	}
+
+	private static int translateType(int tokenType) {
+		switch (tokenType) {
+			case SchemeToken.CONSTANT:
+				return SexpNavigator.TYPE_CONSTANT;
+			case SchemeToken.SYMBOL:
+				return SexpNavigator.TYPE_SYMBOL;
+			case SchemeToken.STRING:
+				return SexpNavigator.TYPE_STRING;
+			default:
+				return SexpNavigator.TYPE_OTHER;
+		}
+	}
+
+	private static boolean isSyntacticPrefix(int type) {
+		return type == SchemeToken.VECTORPREFIX
+			   || type == SchemeToken.QUOTE
+			   || type == SchemeToken.UNQUOTE
+			   || type == SchemeToken.BACKQUOTE
+			   || type == SchemeToken.UNQUOTE_SPLICING;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.interpreter;
+
+import gnu.kawa.reflect.*;
+import gnu.mapping.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.zip.*;
+
+import kawa.standard.*;
+
+import org.eclipse.core.runtime.*;
+import org.schemeway.plugins.schemescript.*;
+
+/**
+ * Loads the Scheme modules of the <code>conf</code> folder, which implement
+ * most of the plugin commands. The build compiles these modules with Kawa
+ * (see <code>compile-conf.scm</code>) into the package
+ * <code>org.schemeway.plugins.schemescript.conf</code> of the plugin jar, and
+ * records the checksum of each source file in
+ * <code>modules.properties</code>.
+ * <p>
+ * The modules are loaded in order, each one compiled against the macros,
+ * namespaces and aliases of the modules before it. A module is loaded from
+ * its compiled class when the source file in the <code>conf</code> folder
+ * still has the checksum recorded by the build. A module changed by the
+ * user, or not compiled, is loaded from its source, and so is every module
+ * loaded after it, since their classes may hold stale expansions of its
+ * macros. Likewise, the build compiles no module after the first one that
+ * fails.
+ *
+ * @author SchemeWay Project.
+ */
+public final class ConfModules {
+	public static final String CONF_FOLDER = "conf/";
+	public static final String PACKAGE = "org.schemeway.plugins.schemescript.conf";
+
+	private static final String CHECKSUMS = PACKAGE.replace('.', '/') + "/modules.properties";
+
+	// the checksums of the compiled modules, by file name
+	private static Properties sChecksums;
+	// set once a module is loaded from its source; the modules are loaded
+	// in the Scheme thread
+	private static boolean sLoadingSources = false;
+
+	private ConfModules() {
+	}
+
+	/**
+	 * Loads the module <code>filename</code> of the <code>conf</code> folder
+	 * in the current environment. The module is loaded from its source if a
+	 * module before it was.
+	 */
+	public static void load(String filename) throws Throwable {
+		URL source = SchemeScriptPlugin.findFile(new Path(CONF_FOLDER + filename));
+		if (source == null)
+			throw new FileNotFoundException(CONF_FOLDER + filename);
+
+		if (!sLoadingSources && isCompiled(filename, source) && loadCompiled(getClassName(filename)))
+			return;
+		sLoadingSources = true;
+		load.load.apply1(source.toString());
+	}
+
+	/**
+	 * Returns the name of the class compiled from the module
+	 * <code>filename</code>.
+	 */
+	public static String getClassName(String filename) {
+		int extension = filename.lastIndexOf('.');
+		if (extension >= 0)
+			filename = filename.substring(0, extension);
+		return PACKAGE + "." + filename;
+	}
+
+	/*
+	 * Returns true if the source of the module is the one the build compiled.
+	 */
+	private static boolean isCompiled(String filename, URL source) {
+		String checksum = getChecksums().getProperty(filename);
+		if (checksum == null)
+			return false;
+		try {
+			return checksum.equals(computeChecksum(source));
+		}
+		catch (IOException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the checksum of the content of <code>url</code>, as recorded by
+	 * the build.
+	 */
+	public static String computeChecksum(URL url) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream input = url.openStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = input.read(buffer)) != -1)
+				crc.update(buffer, 0, count);
+		}
+		finally {
+			input.close();
+		}
+		return Long.toHexString(crc.getValue());
+	}
+
+	private static synchronized Properties getChecksums() {
+		if (sChecksums == null) {
+			sChecksums = new Properties();
+			InputStream input = ConfModules.class.getClassLoader().getResourceAsStream(CHECKSUMS);
+			if (input != null) {
+				try {
+					sChecksums.load(input);
+					input.close();
+				}
+				catch (IOException exception) {
+					SchemeScriptPlugin.logException("Unable to read the checksums of the compiled modules", exception);
+				}
+			}
+		}
+		return sChecksums;
+	}
+
+	/*
+	 * Loads a compiled module the way Kawa's load does, but with the class
+	 * loader of the plugin. Returns false if the class is not packaged.
+	 */
+	private static boolean loadCompiled(String className) throws Throwable {
+		Class moduleClass;
+		try {
+			moduleClass = Class.forName(className, true, ConfModules.class.getClassLoader());
+		}
+		catch (ClassNotFoundException exception) {
+			return false;
+		}
+		Object module = moduleClass.newInstance();
+		ClassMemberLocation.defineAll(module, Environment.getCurrent());
+		if (module instanceof Runnable)
+			((Runnable) module).run();
+		return true;
+	}
+}
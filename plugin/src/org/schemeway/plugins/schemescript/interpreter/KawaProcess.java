@@ -23,13 +23,14 @@ import org.schemeway.plugins.schemescript.views.*;
 public class KawaProcess implements IInterpreterProcess {
     private static class KawaStreamsProxy implements IStreamsProxy {
 
-        private MonitoredOutputStream mErrorMonitor = new MonitoredOutputStream();
-        private MonitoredOutputStream mOutputMonitor = new MonitoredOutputStream();
+        // the writers of the Kawa ports encode in UTF-8, whatever the platform
+        private MonitoredOutputStream mErrorMonitor = new MonitoredOutputStream("UTF-8");
+        private MonitoredOutputStream mOutputMonitor = new MonitoredOutputStream("UTF-8");
 
         public KawaStreamsProxy() {
-            OutPort.setOutDefault(new OutPort(new OutputStreamWriter(mOutputMonitor), false, true));
+            OutPort.setOutDefault(new OutPort(mOutputMonitor.createWriter(), false, true));
             OutPort.outDefault().objectFormat = DisplayFormat.getSchemeFormat(true);
-            OutPort.setErrDefault(new OutPort(new OutputStreamWriter(mErrorMonitor), false, true));
+            OutPort.setErrDefault(new OutPort(mErrorMonitor.createWriter(), false, true));
             disableExit();
         }
 
@@ -52,16 +53,18 @@ public class KawaProcess implements IInterpreterProcess {
             final OutPort out = OutPort.outDefault();
             final OutPort err = OutPort.errDefault();
             out.setColumnNumber(0);
-            KawaProxy.runInSchemeThread(new Runnable() {
+            // the prompt is written once the evaluation completes, so the
+            // console stays responsive during long evaluations
+            KawaProxy.submit(new Runnable() {
             	public void run () {
                     KawaProcess.eval(Scheme.getInstance(), new CharArrayInPort(input), out, err);
+                    if (out.getColumnNumber() != 0) {
+                        out.freshLine();
+                    }
+                    out.write(MonitoredOutputStream.PROMPT);
+                    out.flush();
             	}
             });
-            if (out.getColumnNumber() != 0) {
-                out.freshLine();
-            }
-            out.write(MonitoredOutputStream.PROMPT);
-            out.flush();
         }
     }
 
@@ -5,74 +5,281 @@
  */
 package org.schemeway.plugins.schemescript.interpreter;
 
-import gnu.lists.*;
 import gnu.mapping.*;
 import kawa.standard.*;
 
+import java.lang.reflect.*;
+import java.util.*;
+
 import org.eclipse.swt.widgets.*;
 import org.schemeway.plugins.schemescript.*;
 
 /**
  * The KawaProxy help ensure that all Scheme evaluations are done in the same
  * thread. 
+ * <p>
+ * The evaluations are queued in a dedicated Scheme thread, so that a long
+ * evaluation never blocks the UI thread. Scheme code that touches widgets
+ * must go through <code>runInDisplayThread</code>.
  * 
- * TODO - change the implementation to not use the UI thread 
  * @author schemeway
  */
 public final class KawaProxy {
 
+	private static final LinkedList sQueue = new LinkedList();
+	private static final List sPendingLoads = new LinkedList();
+	private static Thread sSchemeThread = null;
+	private static volatile Environment sEnvironment;
+
 	private KawaProxy() {
 		// Ensure that the class will not be instantiated
 	}
-	
-	// Loads a file in the Kawa interpreter.
-	public static void loadFile(final String filename) {
-    	Display.getDefault().syncExec(new Runnable() {
-    		public void run() {
-    	        try {
-    	            load.load.apply1(filename);
-    	        }
-    	        catch (Throwable e) {
-    	            SchemeScriptPlugin.logException("Unable to load initialization files", e);
-    	        }
-    		}
-    	});
+
+	// The Scheme thread. Runs the queued requests in order.
+	private static final class Evaluator extends Thread {
+		private final Display mDisplay;
+
+		Evaluator(Display display) {
+			super("Scheme evaluator");
+			mDisplay = display;
+			setDaemon(true);
+		}
+
+		public void run() {
+			final Environment environment = Environment.getCurrent();
+			sEnvironment = environment;
+			// Scheme procedures called from the UI thread (actions, hooks, etc.)
+			// must see the same global environment.
+			mDisplay.asyncExec(new Runnable() {
+				public void run() {
+					Environment.setCurrent(environment);
+				}
+			});
+			synchronized (sQueue) {
+				sQueue.notifyAll();
+			}
+
+			while (true) {
+				SchemeFuture future;
+				synchronized (sQueue) {
+					while (sQueue.isEmpty()) {
+						try {
+							sQueue.wait();
+						}
+						catch (InterruptedException exception) {
+							// keep serving requests
+						}
+					}
+					future = (SchemeFuture) sQueue.removeFirst();
+				}
+				future.execute();
+			}
+		}
 	}
-	
-	// Dereferences a symbol in the global environment.
-	public static Object get(final String symbolName) {
-        final Pair box = new Pair();
 
-		Display.getDefault().syncExec(new Runnable() {
+	private static void startSchemeThread() {
+		synchronized (sQueue) {
+			if (sSchemeThread == null) {
+				sSchemeThread = new Evaluator(Display.getDefault());
+				sSchemeThread.start();
+			}
+		}
+	}
+
+	private static boolean isSchemeThread() {
+		return Thread.currentThread() == sSchemeThread;
+	}
+
+	// Returns the global environment of the Scheme thread. Other threads must
+	// install it with Environment.setCurrent before applying Scheme procedures.
+	public static Environment getEnvironment() {
+		if (sEnvironment == null) {
+			startSchemeThread();
+			synchronized (sQueue) {
+				while (sEnvironment == null) {
+					try {
+						sQueue.wait();
+					}
+					catch (InterruptedException exception) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+		return sEnvironment;
+	}
+
+	// Queues a runnable in the Scheme thread and returns immediately.
+	public static SchemeFuture submit(Runnable runnable) {
+		return enqueue(new SchemeFuture(runnable));
+	}
+
+	// Queues the application of a Scheme procedure in the Scheme thread and
+	// returns immediately.
+	public static SchemeFuture apply(Procedure procedure, Object[] arguments) {
+		return enqueue(new SchemeFuture(procedure, arguments));
+	}
+
+	private static SchemeFuture enqueue(SchemeFuture future) {
+		startSchemeThread();
+		synchronized (sQueue) {
+			sQueue.addLast(future);
+			sQueue.notifyAll();
+		}
+		return future;
+	}
+	
+	// Loads a file in the Kawa interpreter. The file is loaded asynchronously,
+	// but the symbols it defines are visible to get once it is loaded.
+	public static SchemeFuture loadFile(final String filename) {
+		SchemeFuture future = submit(new Runnable() {
 			public void run() {
 				try {
-					Object object = Environment.getCurrent().get(symbolName);
-					box.car = object;
-				} catch (Throwable e) {
-					SchemeScriptPlugin.logException("Error while referencing Scheme symbol", e);
-					box.car = null;
+					load.load.apply1(filename);
+				}
+				catch (Throwable e) {
+					SchemeScriptPlugin.logException("Unable to load initialization files", e);
 				}
 			}
 		});
-		return box.car;
+		synchronized (sPendingLoads) {
+			sPendingLoads.add(future);
+		}
+		return future;
+	}
+
+	// Returns true once the initialization files are loaded
+	private static boolean arePendingLoadsDone() {
+		synchronized (sPendingLoads) {
+			for (Iterator iterator = sPendingLoads.iterator(); iterator.hasNext();) {
+				if (((SchemeFuture) iterator.next()).isDone())
+					iterator.remove();
+			}
+			return sPendingLoads.isEmpty();
+		}
+	}
+
+	private static void waitForPendingLoads(boolean dispatching) {
+		if (isSchemeThread())
+			return;
+		while (true) {
+			SchemeFuture future;
+			synchronized (sPendingLoads) {
+				if (sPendingLoads.isEmpty())
+					return;
+				future = (SchemeFuture) sPendingLoads.get(0);
+			}
+			if (dispatching)
+				future.waitForDispatching();
+			else
+				future.waitFor();
+			synchronized (sPendingLoads) {
+				sPendingLoads.remove(future);
+			}
+		}
+	}
+	
+	// Dereferences a symbol in the global environment. Does not wait behind
+	// running evaluations. Other threads wait for the initialization files,
+	// but the display thread does not: until they are loaded, it gets null,
+	// so that the editor callbacks (content assist, hovers, hyperlinks) find
+	// nothing instead of blocking or dispatching events in the middle of the
+	// callback.
+	public static Object get(final String symbolName) {
+		if (Display.getCurrent() != null) {
+			if (!arePendingLoadsDone())
+				return null;
+		}
+		else {
+			waitForPendingLoads(false);
+		}
+		return lookup(symbolName);
+	}
+
+	// Dereferences a symbol for an explicit top-level command, such as a
+	// Scheme action run by the user. In the display thread, the SWT events
+	// are dispatched while waiting for the initialization files.
+	public static Object getForCommand(final String symbolName) {
+		waitForPendingLoads(true);
+		return lookup(symbolName);
+	}
+
+	private static Object lookup(String symbolName) {
+		try {
+			return getEnvironment().get(symbolName);
+		}
+		catch (Throwable e) {
+			SchemeScriptPlugin.logException("Error while referencing Scheme symbol", e);
+			return null;
+		}
 	}
     
-    // Sets a symbol in the global environment
-    public static void set(final String symbolName, final Object value)
-    {
-        runInSchemeThread(new Runnable() {
-            public void run() {
-                Environment env = Environment.getCurrent();
-                env.define(env.getSymbol(symbolName), null, value);
-            }
-        });
-    }
+	// Sets a symbol in the global environment
+	public static SchemeFuture set(final String symbolName, final Object value) {
+		return submit(new Runnable() {
+			public void run() {
+				Environment env = Environment.getCurrent();
+				env.define(env.getSymbol(symbolName), null, value);
+			}
+		});
+	}
 	
-	// Runs a runnable in the Scheme thread
+	// Runs a runnable in the Scheme thread and waits for its completion. In the
+	// display thread, the SWT events are dispatched while waiting, so this is
+	// for top-level commands only.
 	public static void runInSchemeThread(Runnable runnable) {
 		if (runnable == null)
 			return;
 		
-		Display.getDefault().syncExec(runnable);
+		if (isSchemeThread()) {
+			runnable.run();
+			return;
+		}
+		try {
+			SchemeFuture future = submit(runnable);
+			future.waitForDispatching();
+			future.get();
+		}
+		catch (InvocationTargetException exception) {
+			SchemeScriptPlugin.logException("Error in the Scheme thread", exception.getTargetException());
+		}
+	}
+
+	// Runs a runnable in the display thread and waits for its completion
+	public static void runInDisplayThread(Runnable runnable) {
+		if (Display.getCurrent() != null)
+			runnable.run();
+		else
+			Display.getDefault().syncExec(runnable);
+	}
+
+	// Applies a thunk in the display thread and returns its value. Used by the
+	// Scheme code that creates or updates widgets.
+	public static Object applyInDisplayThread(final Procedure thunk) throws Throwable {
+		if (Display.getCurrent() != null)
+			return thunk.apply0();
+
+		final Environment environment = Environment.getCurrent();
+		final Object[] result = new Object[1];
+		final Throwable[] exception = new Throwable[1];
+		Display.getDefault().syncExec(new Runnable() {
+			public void run() {
+				Environment previous = Environment.getCurrent();
+				Environment.setCurrent(environment);
+				try {
+					result[0] = thunk.apply0();
+				}
+				catch (Throwable e) {
+					exception[0] = e;
+				}
+				finally {
+					Environment.setCurrent(previous);
+				}
+			}
+		});
+		if (exception[0] != null)
+			throw exception[0];
+		return result[0];
 	}
 }
@@ -4,22 +4,79 @@
 package org.schemeway.plugins.schemescript.interpreter;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 import java.util.*;
 
 import org.eclipse.debug.core.*;
 import org.eclipse.debug.core.model.*;
 
+/**
+ * The output stream of an embedded interpreter. The bytes written are
+ * decoded with the charset of the stream and the text is sent to the
+ * listeners by chunks: a chunk is sent when it reaches
+ * <code>CHUNK_SIZE</code> characters, or at most <code>FLUSH_DELAY</code>
+ * milliseconds after the text was written. Full chunks are sent by the
+ * writing thread, so an interpreter printing faster than the listeners can
+ * follow is slowed down instead of queuing text without bound.
+ *
+ * @author SchemeWay Project.
+ */
 class MonitoredOutputStream extends OutputStream implements IStreamMonitor {
 
+    public static final String PROMPT = "> ";
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final long FLUSH_DELAY = 50;
+    private static final int BUFFER_SIZE = 1024;
+
+    private static Timer sFlushTimer;
+
     private List mListeners = new LinkedList();
-	public static final String PROMPT = "> ";
 
+    private CharsetDecoder mDecoder;
+    private ByteBuffer mBytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private CharBuffer mChars = CharBuffer.allocate(BUFFER_SIZE);
+
+    // the text not sent yet
+    private StringBuffer mPending = new StringBuffer();
+    private TimerTask mFlushTask;
+    private long mLastSend;
+    // held while text is sent, so chunks reach the listeners in order
+    private Object mSendLock = new Object();
+
+    /**
+     * Creates a stream decoding the platform default charset.
+     */
     public MonitoredOutputStream() {
+        this(System.getProperty("file.encoding", "ISO-8859-1"));
+    }
+
+    public MonitoredOutputStream(String charsetName) {
+        Charset charset;
+        try {
+            charset = Charset.forName(charsetName);
+        }
+        catch (IllegalArgumentException exception) {
+            charset = Charset.forName("ISO-8859-1");
+        }
+        mDecoder = charset.newDecoder();
+        mDecoder.onMalformedInput(CodingErrorAction.REPLACE);
+        mDecoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Returns a writer encoding its text with the charset of this stream.
+     */
+    public Writer createWriter() {
+        return new OutputStreamWriter(this, mDecoder.charset().newEncoder());
     }
 
     public void addListener(IStreamListener listener) {
-        if (!mListeners.contains(listener))
-            mListeners.add(listener);
+        synchronized (mListeners) {
+            if (!mListeners.contains(listener))
+                mListeners.add(listener);
+        }
     }
 
     public String getContents() {
@@ -28,33 +85,152 @@ class MonitoredOutputStream extends OutputStream implements IStreamMonitor {
     }
 
     public void removeListener(IStreamListener listener) {
-        mListeners.remove(listener);
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
     }
 
-    // send the string to all listeners.
-    private void writeString(String text) {
-        for (Iterator iter = mListeners.iterator(); iter.hasNext();) {
-            IStreamListener listener = (IStreamListener) iter.next();
-            listener.streamAppended(text, this);
+    public void write(int b) {
+        boolean full;
+        synchronized (this) {
+            mBytes.put((byte) b);
+            decodeBytes();
+            full = checkPending();
         }
+        if (full)
+            sendPending();
     }
 
-    public void write(byte[] bytes) {
-        char[] chars = new char[bytes.length];
-        for (int i = 0; i < chars.length; i++) {
-            chars[i] = (char) bytes[i];
+    public void write(byte[] bytes, int offset, int length) {
+        boolean full;
+        synchronized (this) {
+            while (length > 0) {
+                int count = Math.min(length, mBytes.remaining());
+                mBytes.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+                decodeBytes();
+            }
+            full = checkPending();
         }
-        writeString(new String(chars));
+        if (full)
+            sendPending();
     }
 
-    public void write(int b) {
-        if ((char) b == '\r')
+    /*
+     * Returns true if a chunk is ready to be sent by the writing thread.
+     * Otherwise, makes sure the pending text will be sent after the delay.
+     */
+    private boolean checkPending() {
+        if (mPending.length() >= CHUNK_SIZE)
+            return true;
+        scheduleFlush();
+        return false;
+    }
+
+    /**
+     * Sends the pending text, unless some text was sent less than
+     * <code>FLUSH_DELAY</code> milliseconds ago: the text is then sent with
+     * the text written during the remaining delay.
+     */
+    public void flush() {
+        boolean sendNow;
+        synchronized (this) {
+            if (mPending.length() == 0)
+                return;
+            sendNow = System.currentTimeMillis() - mLastSend >= FLUSH_DELAY;
+            if (!sendNow)
+                scheduleFlush();
+        }
+        if (sendNow)
+            sendPending();
+    }
+
+    public void close() {
+        synchronized (this) {
+            mBytes.flip();
+            mDecoder.decode(mBytes, mChars, true);
+            mDecoder.flush(mChars);
+            appendChars();
+            mBytes.clear();
+            mDecoder.reset();
+        }
+        sendPending();
+    }
+
+    /*
+     * Decodes the bytes written. An incomplete character at the end of the
+     * bytes stays in the byte buffer until the next write.
+     */
+    private void decodeBytes() {
+        mBytes.flip();
+        while (mDecoder.decode(mBytes, mChars, false).isOverflow()) {
+            appendChars();
+        }
+        appendChars();
+        mBytes.compact();
+    }
+
+    private void appendChars() {
+        mChars.flip();
+        char[] chars = mChars.array();
+        int end = mChars.limit();
+        int start = 0;
+        for (int index = 0; index < end; index++) {
+            if (chars[index] == '\r') {
+                mPending.append(chars, start, index - start);
+                start = index + 1;
+            }
+        }
+        mPending.append(chars, start, end - start);
+        mChars.clear();
+    }
+
+    private void scheduleFlush() {
+        if (mFlushTask != null || mPending.length() == 0)
             return;
-        char[] chars =
-        {
-            (char) b
+        mFlushTask = new TimerTask() {
+            public void run() {
+                sendPending();
+            }
         };
-        writeString(new String(chars));
+        long delay = Math.max(0, mLastSend + FLUSH_DELAY - System.currentTimeMillis());
+        getFlushTimer().schedule(mFlushTask, delay);
     }
 
-}
\ No newline at end of file
+    private static synchronized Timer getFlushTimer() {
+        if (sFlushTimer == null)
+            sFlushTimer = new Timer(true);
+        return sFlushTimer;
+    }
+
+    // send the pending text to all listeners.
+    private void sendPending() {
+        synchronized (mSendLock) {
+            String text;
+            synchronized (this) {
+                if (mFlushTask != null) {
+                    mFlushTask.cancel();
+                    mFlushTask = null;
+                }
+                mLastSend = System.currentTimeMillis();
+                if (mPending.length() == 0)
+                    return;
+                text = mPending.toString();
+                mPending.setLength(0);
+            }
+
+            Object[] listeners;
+            synchronized (mListeners) {
+                listeners = mListeners.toArray();
+            }
+            for (int i = 0; i < listeners.length; i++) {
+                ((IStreamListener) listeners[i]).streamAppended(text, this);
+            }
+        }
+    }
+}
@@ -29,10 +29,20 @@ public class OutputStreamMonitor implements IFlushableStreamMonitor {
     
     private SocketExceptionHandler fExceptionListener;
     
+    /**
+     * The default maximum number of characters kept in the contents
+     */
+    public static final int DEFAULT_CONTENTS_LIMIT = 1024 * 1024;
+
+    /**
+     * The initial size of the contents buffer
+     */
+    private static final int INITIAL_CONTENTS_SIZE = 8192;
+
     /**
      * The stream being monitored (connected system out or err).
      */
-    private InputStream fStream;
+    private Reader fStream;
 
     /**
      * A collection of listeners
@@ -45,9 +55,36 @@ public class OutputStreamMonitor implements IFlushableStreamMonitor {
     private boolean fBuffered = true;
 
     /**
-     * The local copy of the stream contents
+     * The local copy of the stream contents: a ring buffer holding the
+     * last characters read, up to fContentsLimit characters
+     */
+    private char[] fContents;
+
+    /**
+     * The index of the first character of the contents in the ring buffer
+     */
+    private int fContentsStart= 0;
+
+    /**
+     * The number of characters in the contents
      */
-    private StringBuffer fContents;
+    private int fContentsLength= 0;
+
+    /**
+     * The maximum number of characters kept in the contents
+     */
+    private int fContentsLimit;
+
+    /**
+     * The number of characters dropped from the contents to stay under
+     * the limit
+     */
+    private long fDroppedCount= 0;
+
+    /**
+     * The notifier of the listeners, reused for every append
+     */
+    private ContentNotifier fNotifier= new ContentNotifier();
 
     /**
      * The thread which reads from the stream
@@ -73,8 +110,17 @@ public class OutputStreamMonitor implements IFlushableStreamMonitor {
      * given stream (connected to system out or err).
      */
     public OutputStreamMonitor(InputStream stream, SocketExceptionHandler listener) {
-        fStream = new BufferedInputStream(stream, 8192);
-        fContents= new StringBuffer();
+        this(stream, listener, DEFAULT_CONTENTS_LIMIT);
+    }
+
+    /**
+     * Creates an output stream monitor keeping at most
+     * <code>contentsLimit</code> characters of contents.
+     */
+    public OutputStreamMonitor(InputStream stream, SocketExceptionHandler listener, int contentsLimit) {
+        fStream = new InputStreamReader(stream);
+        fContentsLimit = Math.max(1, contentsLimit);
+        fContents= new char[Math.min(INITIAL_CONTENTS_SIZE, fContentsLimit)];
         fExceptionListener = listener;
     }
 
@@ -114,7 +160,70 @@ public class OutputStreamMonitor implements IFlushableStreamMonitor {
      * @see org.eclipse.debug.core.model.IStreamMonitor#getContents()
      */
     public synchronized String getContents() {
-        return fContents.toString();
+        int firstPart = Math.min(fContentsLength, fContents.length - fContentsStart);
+        StringBuffer contents = new StringBuffer(fContentsLength);
+        contents.append(fContents, fContentsStart, firstPart);
+        contents.append(fContents, 0, fContentsLength - firstPart);
+        return contents.toString();
+    }
+
+    /**
+     * Returns the number of characters dropped from the contents since
+     * the monitor was created, to keep the contents under their limit.
+     */
+    public synchronized long getDroppedCount() {
+        return fDroppedCount;
+    }
+
+    /**
+     * Appends characters to the contents, dropping the oldest characters
+     * when the limit is reached.
+     */
+    private void appendContents(char[] chars, int offset, int length) {
+        if (length >= fContentsLimit) {
+            fDroppedCount += fContentsLength + length - fContentsLimit;
+            offset += length - fContentsLimit;
+            length = fContentsLimit;
+            fContentsStart = 0;
+            fContentsLength = 0;
+        }
+        ensureContentsCapacity(fContentsLength + length);
+
+        int capacity = fContents.length;
+        int overflow = fContentsLength + length - capacity;
+        if (overflow > 0) {
+            fContentsStart = (fContentsStart + overflow) % capacity;
+            fContentsLength -= overflow;
+            fDroppedCount += overflow;
+        }
+
+        int end = (fContentsStart + fContentsLength) % capacity;
+        int firstPart = Math.min(length, capacity - end);
+        System.arraycopy(chars, offset, fContents, end, firstPart);
+        System.arraycopy(chars, offset + firstPart, fContents, 0, length - firstPart);
+        fContentsLength += length;
+    }
+
+    private void appendContents(String text) {
+        char[] chars = text.toCharArray();
+        appendContents(chars, 0, chars.length);
+    }
+
+    /**
+     * Grows the ring buffer, up to the limit of the contents.
+     */
+    private void ensureContentsCapacity(int size) {
+        int capacity = fContents.length;
+        if (size <= capacity || capacity == fContentsLimit) {
+            return;
+        }
+        int newCapacity = Math.min(fContentsLimit, Math.max(capacity * 2, size));
+        char[] contents = new char[newCapacity];
+        int firstPart = Math.min(fContentsLength, capacity - fContentsStart);
+        System.arraycopy(fContents, fContentsStart, contents, 0, firstPart);
+        System.arraycopy(fContents, 0, contents, firstPart, fContentsLength - firstPart);
+        fContents = contents;
+        fContentsStart = 0;
     }
 
     /**
@@ -128,23 +237,24 @@ public class OutputStreamMonitor implements IFlushableStreamMonitor {
     private void read() {
         lastSleep = System.currentTimeMillis();
         long currentTime = lastSleep;
-        byte[] bytes= new byte[BUFFER_SIZE];
+        char[] chars= new char[BUFFER_SIZE];
         int read = 0;
         while (read >= 0) {
             try {
                 if (fKilled) {
                     break;
                 }
-                read= fStream.read(bytes);
+                read= fStream.read(chars);
                 if (read < 0) {
                     notifiedSocketException(null);
                     return;
                 }
                 if (read > 0) {
-                    String text= new String(bytes, 0, read);
+                    // a single string is shared by all the listeners
+                    String text= new String(chars, 0, read);
                     synchronized (this) {
                         if (isBuffered()) {
-                            fContents.append(text);
+                            appendContents(chars, 0, read);
                         }
                         fireStreamAppended(text);
                     }
@@ -182,10 +292,12 @@ public class OutputStreamMonitor implements IFlushableStreamMonitor {
     
     private void notifiedSocketException(SocketException exception) {
         if (fExceptionListener != null) {
-            if (isBuffered()) {
-                fContents.append("Connection closed!\n");
+            synchronized (this) {
+                if (isBuffered()) {
+                    appendContents("Connection closed!\n");
+                }
+                fireStreamAppended("Connection closed!\n");
             }
-            fireStreamAppended("Connection closed!\n");
             fExceptionListener.exceptionOccurred(exception);
         }
     }
@@ -228,7 +340,8 @@ public class OutputStreamMonitor implements IFlushableStreamMonitor {
      * @see org.eclipse.debug.core.model.IFlushableStreamMonitor#flushContents()
      */
     public synchronized void flushContents() {
-        fContents.setLength(0);
+        fContentsStart = 0;
+        fContentsLength = 0;
     }
     
     /**
@@ -239,7 +352,7 @@ public class OutputStreamMonitor implements IFlushableStreamMonitor {
     }
 
     private ContentNotifier getNotifier() {
-        return new ContentNotifier();
+        return fNotifier;
     }
     
     class ContentNotifier implements ISafeRunnable {
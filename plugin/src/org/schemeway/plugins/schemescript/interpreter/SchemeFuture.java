@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.interpreter;
+
+import gnu.mapping.*;
+
+import java.lang.reflect.*;
+
+import org.eclipse.swt.widgets.*;
+
+/**
+ * The result of a request queued in the Scheme thread by {@link KawaProxy}.
+ * <p>
+ * {@link #waitFor()} blocks the calling thread. Only the explicit top-level
+ * commands run from the display thread may wait with
+ * {@link #waitForDispatching()}, which keeps dispatching the SWT events so
+ * that the Scheme code can marshal its widget work to the display while the
+ * display thread waits. Any event can then run in the middle of the wait, so
+ * the callbacks of the editor (content assist, hovers, hyperlinks...) must
+ * never use it.
+ *
+ * @author SchemeWay Project.
+ */
+public final class SchemeFuture {
+	private final Runnable mRunnable;
+	private final Procedure mProcedure;
+	private final Object[] mArguments;
+
+	private boolean mDone = false;
+	private Object mResult;
+	private Throwable mException;
+	private Display mWaitingDisplay;
+
+	SchemeFuture(Runnable runnable) {
+		mRunnable = runnable;
+		mProcedure = null;
+		mArguments = null;
+	}
+
+	SchemeFuture(Procedure procedure, Object[] arguments) {
+		mRunnable = null;
+		mProcedure = procedure;
+		mArguments = arguments;
+	}
+
+	/*
+	 * Runs the request. Called from the Scheme thread.
+	 */
+	void execute() {
+		Object result = null;
+		Throwable exception = null;
+		try {
+			if (mProcedure != null)
+				result = mProcedure.applyN(mArguments);
+			else
+				mRunnable.run();
+		}
+		catch (Throwable e) {
+			exception = e;
+		}
+
+		Display display;
+		synchronized (this) {
+			mResult = result;
+			mException = exception;
+			mDone = true;
+			display = mWaitingDisplay;
+			notifyAll();
+		}
+		if (display != null && !display.isDisposed())
+			display.wake();
+	}
+
+	public synchronized boolean isDone() {
+		return mDone;
+	}
+
+	/**
+	 * Waits for the request to complete, without dispatching events.
+	 */
+	public void waitFor() {
+		synchronized (this) {
+			while (!mDone) {
+				try {
+					wait();
+				}
+				catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the request to complete. In the display thread, the SWT
+	 * events are dispatched while waiting. For top-level commands only.
+	 */
+	public void waitForDispatching() {
+		Display display = Display.getCurrent();
+		if (display == null) {
+			waitFor();
+			return;
+		}
+		synchronized (this) {
+			mWaitingDisplay = display;
+		}
+		while (!isDone()) {
+			if (!display.readAndDispatch())
+				display.sleep();
+		}
+	}
+
+	/**
+	 * Waits for the request to complete and returns the value of the
+	 * procedure, or null for a <code>Runnable</code> request.
+	 *
+	 * @throws InvocationTargetException if the request threw an exception
+	 */
+	public Object get() throws InvocationTargetException {
+		waitFor();
+		synchronized (this) {
+			if (mException != null)
+				throw new InvocationTargetException(mException);
+			return mResult;
+		}
+	}
+}
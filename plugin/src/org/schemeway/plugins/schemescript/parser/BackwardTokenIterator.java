@@ -5,25 +5,19 @@
  */
 package org.schemeway.plugins.schemescript.parser;
 
-import java.util.*;
-
 import org.eclipse.jface.text.*;
-import org.schemeway.plugins.schemescript.editor.*;
 
+/**
+ * Iterates backward over the tokens of the document's
+ * {@link SchemeTokenIndex}, starting with the token preceding a given position.
+ * Comments are skipped.
+ */
 public final class BackwardTokenIterator implements ISchemeTokenIterator {
-    private IDocument mDocument;
-    private SchemeScanner mScanner;
-    private ITypedRegion mCurrentPartition;
-    private int mPosition;
-    private int mStart;
-    private int mLineStart;
-    private Stack mTokenBuffer;
-    private String mType;
+    private SchemeTokenIndex mIndex;
+    private int mTokenIndex;
 
     public BackwardTokenIterator(IDocument document) {
-        mDocument = document;
-        mScanner = new SchemeScanner();
-        mTokenBuffer = new Stack();
+        mIndex = SchemeTokenIndex.getIndex(document);
     }
 
     public SchemeToken nextToken() {
@@ -31,103 +25,31 @@ public final class BackwardTokenIterator implements ISchemeTokenIterator {
     }
     
     public SchemeToken nextToken(boolean ignoreWS) {
-        SchemeToken result = null;
-
-        while (result == null) {
-            if (mPosition == mStart)
-                fetchPreviousPartition();
-
-            if (mCurrentPartition == null)
-                result = SchemeToken.EOF;
-            else {
-                if (mType == SchemePartitionScanner.SCHEME_COMMENT) {
-                    mPosition = mStart;
-                    fetchPreviousPartition();
-                    continue;
-                }
-                else
-                    if (SchemePartitionScanner.isStringPartition(mType)) {
-                        int length = mPosition - mStart;
-                        mPosition = mStart;
-                        result = SchemeToken.createString(mStart, length);
-                    }
-                    else {
-                        if (mTokenBuffer.isEmpty()) {
-                            mPosition = Math.max(mLineStart - 1, mStart);
-                            if (mPosition > mStart)
-                                fetchTokens();
-                        }
-                        else {
-                            SchemeToken currentToken = (SchemeToken) mTokenBuffer.pop();
-                            if (!ignoreWS || currentToken.getType() != SchemeToken.WSPACE)
-                                result = currentToken;
-                        }
-                    }
-            }
+        while (mTokenIndex >= 0) {
+            int index = mTokenIndex--;
+            int type = mIndex.getTokenType(index);
+            if (type == SchemeToken.COMMENT || (ignoreWS && type == SchemeToken.WSPACE))
+                continue;
+            return mIndex.getToken(index);
         }
-        return result;
-    }
-
-    public void setPosition(int position) {
-        mPosition = position;
-		mCurrentPartition = getCurrentPartition();
-		mType = mCurrentPartition.getType();
-		mStart = mCurrentPartition.getOffset();
-		if (mType == SchemePartitionScanner.SCHEME_COMMENT) {
-		    mPosition = mStart;
-		}
-		else
-		    if (SchemePartitionScanner.isStringPartition(mType)) {
-		        mPosition = mStart + mCurrentPartition.getLength();
-		        if (mStart == position) {
-		            mPosition = mStart;
-		        }
-		    }
-		    else
-		        fetchTokens();
+        return SchemeToken.EOF;
     }
 
-    private void fetchPreviousPartition() {
-        mPosition--;
-        if (mPosition >= 0) {
-		    mCurrentPartition = getCurrentPartition();
-		    mType = mCurrentPartition.getType();
-		    while (mType == SchemePartitionScanner.SCHEME_COMMENT) {
-		        mPosition = mCurrentPartition.getOffset() - 1;
-		        ITypedRegion partition = getCurrentPartition();
-		        if (partition == null)
-		        	break;
-		        mCurrentPartition = partition;
-		        mType = mCurrentPartition.getType();
-		    }
-		    mStart = mCurrentPartition.getOffset();
-		    mPosition = mStart + mCurrentPartition.getLength();
-		    if (!SchemePartitionScanner.isStringPartition(mType)) {
-		        fetchTokens();
-		    }
-		}
-		else
-		    mCurrentPartition = null;
+    public SchemeToken skipToEnclosingDelimiter(int depth) {
+        int index = mIndex.findOpeningToken(mTokenIndex, depth);
+        mTokenIndex = index - 1;
+        if (index < 0) {
+            return SchemeToken.EOF;
+        }
+        return mIndex.getToken(index);
     }
 
-	private ITypedRegion getCurrentPartition() {
-		return SchemeTextUtilities.getPartition(mDocument, mPosition);
-	}
-
-    private void fetchTokens() {
-        mTokenBuffer.clear();
-        try {
-            IRegion lineInfo = mDocument.getLineInformationOfOffset(mPosition);
-            mLineStart = Math.max(mStart, lineInfo.getOffset());
-
-            mScanner.setRange(mDocument, mLineStart, lineInfo.getLength());
-            SchemeToken token = mScanner.nextToken();
-            while (token != SchemeToken.EOF && token.getOffset() < mPosition) {
-                mTokenBuffer.push(token);
-                token = mScanner.nextToken();
-            }
-        }
-        catch (BadLocationException exception) {
-        }
+    public void setPosition(int position) {
+        if (position <= 0)
+            mTokenIndex = -1;
+        else
+            mTokenIndex = mIndex.findToken(position - 1);
+        if (mTokenIndex >= mIndex.getTokenCount())
+            mTokenIndex = mIndex.getTokenCount() - 1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.parser;
+
+/**
+ * A segment tree over the token slots of a {@link SchemeTokenIndex}. Each slot
+ * holds the depth change caused by its token: +1 for an opening delimiter, -1
+ * for a closing one, and 0 for anything else (including the slots of the gap).
+ * <p>
+ * Each node summarizes its slots with the sum of the depth changes, the
+ * minimum prefix sum and the maximum suffix sum. This gives the matching
+ * delimiter of a list, or the delimiter opening an enclosing list, in
+ * O(log n).
+ *
+ * @author SchemeWay Project.
+ */
+final class BracketDepthTree {
+
+	private int mSize;
+	private int[] mSum;
+	private int[] mMinPrefix;
+	private int[] mMaxSuffix;
+
+	// state of the current search
+	private int mTarget;
+	private int mAccumulator;
+
+	public BracketDepthTree(int capacity) {
+		reset(capacity);
+	}
+
+	/**
+	 * Resizes the tree for <code>capacity</code> slots and sets all of them
+	 * to 0.
+	 */
+	public void reset(int capacity) {
+		mSize = 1;
+		while (mSize < capacity) {
+			mSize *= 2;
+		}
+		mSum = new int[2 * mSize];
+		mMinPrefix = new int[2 * mSize];
+		mMaxSuffix = new int[2 * mSize];
+	}
+
+	public static int getDelta(int tokenType) {
+		if (tokenType == SchemeToken.LPAREN) {
+			return 1;
+		}
+		if (tokenType == SchemeToken.RPAREN) {
+			return -1;
+		}
+		return 0;
+	}
+
+	public void set(int slot, int delta) {
+		int node = mSize + slot;
+		if (mSum[node] == delta) {
+			return;
+		}
+		mSum[node] = delta;
+		mMinPrefix[node] = delta;
+		mMaxSuffix[node] = delta;
+		node >>>= 1;
+		while (node > 0) {
+			int left = 2 * node;
+			int right = left + 1;
+			mSum[node] = mSum[left] + mSum[right];
+			mMinPrefix[node] = Math.min(mMinPrefix[left], mSum[left] + mMinPrefix[right]);
+			mMaxSuffix[node] = Math.max(mMaxSuffix[right], mSum[right] + mMaxSuffix[left]);
+			node >>>= 1;
+		}
+	}
+
+	/**
+	 * Returns the sum of the depth changes of the slots in [from, to).
+	 */
+	public int sum(int from, int to) {
+		int result = 0;
+		int low = from + mSize;
+		int high = to + mSize;
+		while (low < high) {
+			if ((low & 1) != 0) {
+				result += mSum[low++];
+			}
+			if ((high & 1) != 0) {
+				result += mSum[--high];
+			}
+			low >>>= 1;
+			high >>>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the maximum sum of the depth changes of the slots in [j, to),
+	 * for all j &lt; to, or 0 if all these sums are negative.
+	 */
+	public int maxSuffix(int to) {
+		if (to >= mSize) {
+			return Math.max(0, mMaxSuffix[1]);
+		}
+		mAccumulator = 0;
+		int result = 0;
+		// walk the right boundary of the range from the leaf to the root
+		int node = to + mSize;
+		while (node > 1) {
+			if ((node & 1) != 0) {
+				// the left sibling is entirely inside the range
+				int sibling = node - 1;
+				result = Math.max(result, mAccumulator + mMaxSuffix[sibling]);
+				mAccumulator += mSum[sibling];
+			}
+			node >>>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the smallest slot j &gt;= from such that the sum of the depth
+	 * changes of the slots in [from, j] is <code>target</code>, or -1.
+	 * <code>target</code> must be negative.
+	 */
+	public int findForward(int from, int target) {
+		mTarget = target;
+		mAccumulator = 0;
+		return findForward(1, 0, mSize, from);
+	}
+
+	private int findForward(int node, int low, int high, int from) {
+		if (high <= from) {
+			return -1;
+		}
+		if (low >= from && mAccumulator + mMinPrefix[node] > mTarget) {
+			mAccumulator += mSum[node];
+			return -1;
+		}
+		if (high - low == 1) {
+			return low;
+		}
+		int middle = (low + high) >>> 1;
+		int result = findForward(2 * node, low, middle, from);
+		if (result >= 0) {
+			return result;
+		}
+		return findForward(2 * node + 1, middle, high, from);
+	}
+
+	/**
+	 * Returns the largest slot j &lt; to such that the sum of the depth
+	 * changes of the slots in [j, to) is <code>target</code>, or -1.
+	 * <code>target</code> must be positive.
+	 */
+	public int findBackward(int to, int target) {
+		mTarget = target;
+		mAccumulator = 0;
+		return findBackward(1, 0, mSize, to);
+	}
+
+	private int findBackward(int node, int low, int high, int to) {
+		if (low >= to) {
+			return -1;
+		}
+		if (high <= to && mAccumulator + mMaxSuffix[node] < mTarget) {
+			mAccumulator += mSum[node];
+			return -1;
+		}
+		if (high - low == 1) {
+			return low;
+		}
+		int middle = (low + high) >>> 1;
+		int result = findBackward(2 * node + 1, middle, high, to);
+		if (result >= 0) {
+			return result;
+		}
+		return findBackward(2 * node, low, middle, to);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.parser;
+
+import org.eclipse.jface.text.*;
+
+/**
+ * The balance of the list delimiters of a text, computed in a single pass
+ * over its tokens. Delimiters inside strings, characters and comments are not
+ * counted, and a string or block comment left open at the end of the text
+ * unbalances it.
+ * <p>
+ * Besides telling whether the text is balanced, the scan finds the outermost
+ * closing delimiter that has no opening delimiter in the text, and the
+ * outermost opening delimiter that is not closed in the text. These are the
+ * delimiters to match to extend the text to complete S-expressions.
+ *
+ * @author SchemeWay Project.
+ */
+public final class DelimiterBalance {
+	private int mLevel = 0;
+	private int mUnmatchedClose = -1;
+	private int mUnclosedOpen = -1;
+	private boolean mUnterminated = false;
+
+	private DelimiterBalance() {
+	}
+
+	/**
+	 * Scans the delimiters of <code>text</code>.
+	 */
+	public static DelimiterBalance scan(String text) {
+		SchemeScanner scanner = new SchemeScanner();
+		scanner.setRange(text.toCharArray(), 0, text.length());
+		DelimiterBalance balance = new DelimiterBalance();
+		SchemeToken token = scanner.nextToken();
+		while (token != SchemeToken.EOF) {
+			if (token.getType() == SchemeToken.ERROR) {
+				// the scanner ends a string or a block comment at the end of
+				// the text with an error token
+				String start = scanner.getText(token.getOffset(), Math.min(2, token.getLength()));
+				if (start.startsWith("\"") || start.equals("#|"))
+					balance.mUnterminated = true;
+			}
+			else
+				balance.addToken(token.getType(), token.getOffset());
+			token = scanner.nextToken();
+		}
+		return balance;
+	}
+
+	/**
+	 * Scans the delimiters of the document in
+	 * [<code>offset</code>, <code>offset + length</code>). The tokens are
+	 * read from the token index of the document, where strings and comments
+	 * are single tokens, so the range is not scanned again.
+	 */
+	public static DelimiterBalance scan(IDocument document, int offset, int length) {
+		DelimiterBalance balance = new DelimiterBalance();
+		SchemeTokenIndex.getIndex(document).addTokens(balance, offset, offset + length);
+		return balance;
+	}
+
+	void addToken(int type, int offset) {
+		if (type == SchemeToken.LPAREN) {
+			if (mLevel == 0)
+				mUnclosedOpen = offset;
+			mLevel++;
+		}
+		else if (type == SchemeToken.RPAREN) {
+			if (mLevel == 0)
+				mUnmatchedClose = offset;
+			else if (--mLevel == 0)
+				mUnclosedOpen = -1;
+		}
+	}
+
+	public boolean isBalanced() {
+		return !mUnterminated && mUnmatchedClose < 0 && mUnclosedOpen < 0;
+	}
+
+	/**
+	 * Returns true if a string or a block comment is not terminated.
+	 */
+	public boolean isUnterminated() {
+		return mUnterminated;
+	}
+
+	/**
+	 * Returns the offset of the last closing delimiter without an opening
+	 * delimiter, or -1.
+	 */
+	public int getUnmatchedClose() {
+		return mUnmatchedClose;
+	}
+
+	/**
+	 * Returns the offset of the first opening delimiter not closed, or -1.
+	 */
+	public int getUnclosedOpen() {
+		return mUnclosedOpen;
+	}
+}
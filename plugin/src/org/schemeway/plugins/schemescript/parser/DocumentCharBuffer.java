@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.parser;
+
+import org.eclipse.jface.text.*;
+
+/**
+ * A read buffer over the characters of a document. The characters are
+ * copied from the document by chunks, so that scanners reading the document
+ * one character at a time do not pay for an <code>IDocument.getChar</code>
+ * call (and its bounds checks) per character.
+ * <p>
+ * The buffer does not track document changes: it must be reset when the
+ * document is modified.
+ *
+ * @author SchemeWay Project.
+ */
+public final class DocumentCharBuffer {
+	private static final int CHUNK_SIZE = 8192;
+	// number of characters kept before the requested position when the
+	// window moves, for the scanners that look back a few characters
+	private static final int BACKTRACK = 16;
+
+	private IDocument mDocument;
+	private int mRangeStart;
+	private int mRangeEnd;
+	private char[] mBuffer = new char[CHUNK_SIZE];
+	private int mWindowStart;
+	private int mWindowEnd;
+
+	public DocumentCharBuffer() {
+	}
+
+	/**
+	 * Prepares the buffer for reading the characters of <code>document</code>
+	 * in [start, end). Characters outside this range can still be read, but
+	 * less efficiently.
+	 */
+	public void reset(IDocument document, int start, int end) {
+		mDocument = document;
+		mRangeStart = start;
+		mRangeEnd = end;
+		mWindowStart = mWindowEnd = start;
+	}
+
+	public IDocument getDocument() {
+		return mDocument;
+	}
+
+	/**
+	 * Returns the character at <code>position</code> in the document.
+	 */
+	public char charAt(int position) throws BadLocationException {
+		if (position < mWindowStart || position >= mWindowEnd) {
+			fill(position);
+		}
+		return mBuffer[position - mWindowStart];
+	}
+
+	private void fill(int position) throws BadLocationException {
+		int documentLength = mDocument.getLength();
+		if (position < 0 || position >= documentLength) {
+			throw new BadLocationException();
+		}
+
+		int start = Math.max(Math.min(mRangeStart, position), position - BACKTRACK);
+		int end = Math.min(start + CHUNK_SIZE, Math.max(mRangeEnd, position + 1));
+		end = Math.min(end, documentLength);
+
+		String text = mDocument.get(start, end - start);
+		text.getChars(0, end - start, mBuffer, 0);
+		mWindowStart = start;
+		mWindowEnd = end;
+	}
+}
@@ -6,18 +6,18 @@
 package org.schemeway.plugins.schemescript.parser;
 
 import org.eclipse.jface.text.*;
-import org.schemeway.plugins.schemescript.editor.*;
 
+/**
+ * Iterates over the tokens of the document's {@link SchemeTokenIndex}, starting
+ * at a given position. Comments are skipped.
+ */
 public class ForwardTokenIterator implements ISchemeTokenIterator {
-    private IDocument mDocument;
-    private SchemeScanner mScanner;
-    private ITypedRegion mCurrentPartition;
+    private SchemeTokenIndex mIndex;
     private int mPosition;
-    private int mEnd;
+    private int mTokenIndex;
 
     public ForwardTokenIterator(IDocument document) {
-        mDocument = document;
-        mScanner = new SchemeScanner();
+        mIndex = SchemeTokenIndex.getIndex(document);
     }
 
     public SchemeToken nextToken() {
@@ -25,89 +25,37 @@ public class ForwardTokenIterator implements ISchemeTokenIterator {
     }
     
     public SchemeToken nextToken(boolean ignoreWS) {
-        SchemeToken result = null;
-
-        while (result == null) {
-            if (mPosition == mEnd)
-                fetchNextPartition();
-
-            if (mCurrentPartition == null)
-                result = SchemeToken.EOF;
-            else {
-                if (SchemePartitionScanner.isStringPartition(mCurrentPartition.getType())) {
-                    int length = mEnd - mPosition;
-                    int start = mPosition;
-                    mPosition = mEnd;
-                    return SchemeToken.createString(start, length);
-                }
-                else
-                    if (mCurrentPartition.getType() == SchemePartitionScanner.SCHEME_COMMENT) {
-                        fetchNextPartition();
-                        continue;
-                    }
-                    else {
-                        SchemeToken token = mScanner.nextToken();
-                        mPosition = mPosition + token.getLength();
-                        if (!ignoreWS || token.getType() != SchemeToken.WSPACE) {
-                            result = token;
-                        }
-                    }
+        int count = mIndex.getTokenCount();
+        while (mTokenIndex < count) {
+            int index = mTokenIndex++;
+            int type = mIndex.getTokenType(index);
+            if (type == SchemeToken.COMMENT || (ignoreWS && type == SchemeToken.WSPACE))
+                continue;
+
+            int offset = mIndex.getTokenOffset(index);
+            int length = mIndex.getTokenLength(index);
+            if (offset < mPosition && type != SchemeToken.STRING) {
+                // the iteration starts in the middle of the token
+                length -= (mPosition - offset);
+                offset = mPosition;
             }
+            return new SchemeToken(type, offset, length);
         }
-        return result;
+        return SchemeToken.EOF;
     }
 
-    public void setPosition(int position) {
-        if (position < mDocument.getLength()) {
-		    mCurrentPartition = SchemeTextUtilities.getPartition(mDocument, position);
-		    if (SchemePartitionScanner.isStringPartition(mCurrentPartition.getType())) {
-		        mPosition = mCurrentPartition.getOffset();
-		        mEnd = mPosition + mCurrentPartition.getLength();
-		    }
-		    else
-		        if (mCurrentPartition.getType() == SchemePartitionScanner.SCHEME_COMMENT) {
-		            mPosition = mCurrentPartition.getOffset();
-		            mEnd = mPosition + mCurrentPartition.getLength();
-		        }
-		        else {
-		            mPosition = position;
-		            mEnd = mCurrentPartition.getOffset() + mCurrentPartition.getLength();
-		            mScanner.setRange(mDocument,
-		                              position,
-		                              (mCurrentPartition.getOffset() + mCurrentPartition.getLength()) - mPosition);
-		        }
-		}
-		else {
-		    mPosition = mEnd = position;
-		    mCurrentPartition = null;
-		}
+    public SchemeToken skipToEnclosingDelimiter(int depth) {
+        int index = mIndex.findClosingToken(mTokenIndex, depth);
+        if (index < 0) {
+            mTokenIndex = mIndex.getTokenCount();
+            return SchemeToken.EOF;
+        }
+        mTokenIndex = index + 1;
+        return mIndex.getToken(index);
     }
 
-	private ITypedRegion getCurrentPartition() {
-		return SchemeTextUtilities.getPartition(mDocument, mPosition);
-	}
-
-    private void fetchNextPartition() {
-        // skip over comment partitions...
-		if (mPosition < mDocument.getLength()) {
-		    mCurrentPartition = getCurrentPartition();
-		    if (mCurrentPartition == null)
-		    	return;
-		    
-		    while (mCurrentPartition.getType() == SchemePartitionScanner.SCHEME_COMMENT) {
-		        mPosition = mCurrentPartition.getOffset() + mCurrentPartition.getLength();
-		        ITypedRegion partition = getCurrentPartition();
-		        if (partition == null)
-		        	break;
-		        
-		        mCurrentPartition = partition;
-		    }
-		    mPosition = mCurrentPartition.getOffset();
-		    mEnd = mPosition + mCurrentPartition.getLength();
-		    if (!SchemePartitionScanner.isStringPartition(mCurrentPartition.getType()))
-		        mScanner.setRange(mDocument, mPosition, mEnd - mPosition);
-		}
-		else
-		    mCurrentPartition = null;
+    public void setPosition(int position) {
+        mPosition = position;
+        mTokenIndex = mIndex.findToken(position);
     }
-}
\ No newline at end of file
+}
@@ -10,4 +10,11 @@ public interface ISchemeTokenIterator {
 
     SchemeToken nextToken();
     SchemeToken nextToken(boolean ignoreWS);
+
+    /**
+     * Skips the tokens up to the delimiter that closes, in the direction of the
+     * iteration, the list <code>depth</code> levels above the current position.
+     * Returns that delimiter, or <code>SchemeToken.EOF</code> if there is none.
+     */
+    SchemeToken skipToEnclosingDelimiter(int depth);
 }
\ No newline at end of file
@@ -34,6 +34,10 @@ public final class KeywordManager {
 	private Pattern mSpecialPattern = null;
 	private Pattern mConstantPattern = null;
 
+	// the sets and regular expressions compiled for the lookups, null when
+	// they changed since the last compilation
+	private volatile Classifier mClassifier = null;
+
 	public KeywordManager() {
 		mDelegate = null;
 	}
@@ -42,7 +46,8 @@ public final class KeywordManager {
 		mDelegate = delegate;
 	}
 
-	public void clear() {
+	public synchronized void clear() {
+		mClassifier = null;
 		mDefines.clear();
 		mKeywords.clear();
 		mMutators.clear();
@@ -50,17 +55,19 @@ public final class KeywordManager {
 		mConstants.clear();
 	}
 	
-	private void setNames(String[] names, Set set) {
+	private synchronized void setNames(String[] names, Set set) {
+		mClassifier = null;
 		for (int index = 0; index < names.length; index++) {
 			set.add(names[index]);
 		}
 	}
 
-	public void addDefine(String name) {
+	public synchronized void addDefine(String name) {
+		mClassifier = null;
 		mDefines.add(name);
 	}
 	
-	public String[] getDefines() {
+	public synchronized String[] getDefines() {
 		return (String[]) mDefines.toArray(new String[mDefines.size()]);
 	}
 	
@@ -72,18 +79,20 @@ public final class KeywordManager {
 		return mDefinePattern == null ? "" : mDefinePattern.pattern();
 	}
 
-	public void setDefineRegularExpression(String re) {
+	public synchronized void setDefineRegularExpression(String re) {
+		mClassifier = null;
 		if (re == null || "".equals(re))
 			mDefinePattern = null;
 		else
 			mDefinePattern = Pattern.compile(re);
 	}
 
-	public void addKeyword(String name) {
+	public synchronized void addKeyword(String name) {
+		mClassifier = null;
 		mKeywords.add(name);
 	}
 	
-	public String[] getKeywords() {
+	public synchronized String[] getKeywords() {
 		return (String[]) mKeywords.toArray(new String[mKeywords.size()]);
 	}
 	
@@ -95,18 +104,20 @@ public final class KeywordManager {
 		return mKeywordPattern == null ? "" : mKeywordPattern.pattern();
 	}
 
-	public void setKeywordRegularExpression(String re) {
+	public synchronized void setKeywordRegularExpression(String re) {
+		mClassifier = null;
 		if (re == null || "".equals(re))
 			mKeywordPattern = null;
 		else
 			mKeywordPattern = Pattern.compile(re);
 	}
 
-	public void addSpecial(String name) {
+	public synchronized void addSpecial(String name) {
+		mClassifier = null;
 		mSpecials.add(name);
 	}
 	
-	public String[] getSpecials() {
+	public synchronized String[] getSpecials() {
 		return (String[]) mSpecials.toArray(new String[mSpecials.size()]);
 	}
 	
@@ -118,18 +129,20 @@ public final class KeywordManager {
 		return mSpecialPattern == null ? "" : mSpecialPattern.pattern();
 	}
 	
-	public void setSpecialRegularExpression(String re) {
+	public synchronized void setSpecialRegularExpression(String re) {
+		mClassifier = null;
 		if (re == null || "".equals(re))
 			mSpecialPattern = null;
 		else
 			mSpecialPattern = Pattern.compile(re);
 	}
 
-	public void addMutator(String name) {
+	public synchronized void addMutator(String name) {
+		mClassifier = null;
 		mMutators.add(name);
 	}
 	
-	public String[] getMutators() {
+	public synchronized String[] getMutators() {
 		return (String[]) mMutators.toArray(new String[mMutators.size()]);
 	}
 	
@@ -141,18 +154,20 @@ public final class KeywordManager {
 		return mMutatorPattern == null ? "" : mMutatorPattern.pattern();
 	}
 
-	public void setMutatorRegularExpression(String re) {
+	public synchronized void setMutatorRegularExpression(String re) {
+		mClassifier = null;
 		if (re == null || "".equals(re))
 			mMutatorPattern = null;
 		else
 			mMutatorPattern = Pattern.compile(re);
 	}
 
-	public void addConstant(String name) {
+	public synchronized void addConstant(String name) {
+		mClassifier = null;
 		mConstants.add(name);
 	}
 	
-	public String[] getConstants() {
+	public synchronized String[] getConstants() {
 		return (String[]) mConstants.toArray(new String[mConstants.size()]);
 	}
 	
@@ -164,7 +179,8 @@ public final class KeywordManager {
 		return mConstantPattern == null ? "" : mConstantPattern.pattern();
 	}
 	
-	public void setConstantRegularExpression(String re) {
+	public synchronized void setConstantRegularExpression(String re) {
+		mClassifier = null;
 		if (re == null || "".equals(re))
 			mConstantPattern = null;
 		else
@@ -172,52 +188,209 @@ public final class KeywordManager {
 	}
 
 	public String getType(String symbol) {
-		if (isDefine(symbol))
-			return TYPE_DEFINE;
-		if (isKeyword(symbol))
-			return TYPE_KEYWORD;
-		if (isSpecial(symbol))
-			return TYPE_SPECIAL;
-		if (isMutator(symbol))
-			return TYPE_MUTATOR;
-		if (isConstant(symbol))
-			return TYPE_CONSTANT;
+		char[] chars = symbol.toCharArray();
+		return getType(chars, 0, chars.length);
+	}
 
-		if (mDelegate == null) {
-			return TYPE_OTHER;
-		}
-		return mDelegate.getType(symbol);
+	/**
+	 * Returns the type of the symbol made of the characters of
+	 * <code>chars</code> in [offset, offset + length). Does not allocate
+	 * once the symbol has been classified.
+	 */
+	public String getType(char[] chars, int offset, int length) {
+		Classifier classifier = mClassifier;
+		if (classifier == null)
+			classifier = compile();
+		String type = classifier.classify(chars, offset, length);
 
+		if (type != TYPE_OTHER || mDelegate == null) {
+			return type;
+		}
+		return mDelegate.getType(chars, offset, length);
 	}
 
-	private boolean matchesRegexp(String text, Pattern pattern) {
-		if (pattern == null) {
-			return false;
+	private synchronized Classifier compile() {
+		if (mClassifier == null) {
+			// in the order of precedence of the types
+			Set[] sets = new Set[] { mDefines, mKeywords, mSpecials, mMutators, mConstants };
+			Pattern[] patterns = new Pattern[] { mDefinePattern, mKeywordPattern, mSpecialPattern, mMutatorPattern, mConstantPattern };
+			mClassifier = new Classifier(sets, patterns);
 		}
-		Matcher matcher = pattern.matcher(text);
-		return matcher.matches();
+		return mClassifier;
 	}
 
-	private boolean isDefine(String symbol) {
-		return mDefines.contains(symbol) || matchesRegexp(symbol, mDefinePattern);
-	}
+	/*
+	 * The names of a keyword manager, with their types, in an open
+	 * addressing hash table keyed by characters. The regular expressions
+	 * are only tried when they can change the result, that is when the
+	 * symbol is not a name of a type with a higher precedence; the result is
+	 * then remembered in a second table, since coloring sees the same
+	 * symbols over and over. The names and expressions never change: the
+	 * keyword manager compiles a new classifier when they do.
+	 */
+	private static final class Classifier {
+		private static final String[] TYPES = { TYPE_DEFINE, TYPE_KEYWORD, TYPE_SPECIAL, TYPE_MUTATOR, TYPE_CONSTANT };
+		private static final int NO_TYPE = TYPES.length;
+		private static final int MEMO_LIMIT = 4096;
 
-	private boolean isKeyword(String symbol) {
-		return mKeywords.contains(symbol) || matchesRegexp(symbol, mKeywordPattern);
-	}
+		private final char[][] mNames;
+		private final int[] mTypes;
 
-	private boolean isSpecial(String symbol) {
-		return mSpecials.contains(symbol) || matchesRegexp(symbol, mSpecialPattern);
-	}
+		// the matchers of the regular expressions, by type
+		private final Matcher[] mMatchers = new Matcher[TYPES.length];
+		private final int mFirstMatcherType;
+		private final CharArraySequence mSequence = new CharArraySequence();
+		private char[][] mMemoNames;
+		private int[] mMemoTypes;
+		private int mMemoCount;
+
+		Classifier(Set[] sets, Pattern[] patterns) {
+			int count = 0;
+			for (int i = 0; i < sets.length; i++) {
+				count += sets[i].size();
+			}
+			mNames = new char[tableSize(count)][];
+			mTypes = new int[mNames.length];
+			for (int type = 0; type < sets.length; type++) {
+				for (Iterator iterator = sets[type].iterator(); iterator.hasNext();) {
+					char[] name = ((String) iterator.next()).toCharArray();
+					// a name in several sets keeps its first type
+					if (lookup(mNames, name, 0, name.length) < 0)
+						insert(mNames, mTypes, name, type);
+				}
+			}
+
+			int firstMatcherType = NO_TYPE;
+			for (int type = patterns.length - 1; type >= 0; type--) {
+				if (patterns[type] != null) {
+					mMatchers[type] = patterns[type].matcher("");
+					firstMatcherType = type;
+				}
+			}
+			mFirstMatcherType = firstMatcherType;
+			clearMemo();
+		}
+
+		String classify(char[] chars, int offset, int length) {
+			int index = lookup(mNames, chars, offset, length);
+			int type = (index >= 0) ? mTypes[index] : NO_TYPE;
+			if (type <= mFirstMatcherType)
+				return typeName(type);
+
+			synchronized (this) {
+				index = lookup(mMemoNames, chars, offset, length);
+				if (index >= 0)
+					return typeName(mMemoTypes[index]);
+
+				mSequence.set(chars, offset, length);
+				for (int i = mFirstMatcherType; i < type; i++) {
+					if (mMatchers[i] != null && mMatchers[i].reset(mSequence).matches()) {
+						type = i;
+						break;
+					}
+				}
+				mSequence.set(null, 0, 0);
+
+				if (mMemoCount == MEMO_LIMIT)
+					clearMemo();
+				char[] name = new char[length];
+				System.arraycopy(chars, offset, name, 0, length);
+				insert(mMemoNames, mMemoTypes, name, type);
+				mMemoCount++;
+				return typeName(type);
+			}
+		}
+
+		private static String typeName(int type) {
+			return (type == NO_TYPE) ? TYPE_OTHER : TYPES[type];
+		}
+
+		private void clearMemo() {
+			mMemoNames = new char[tableSize(MEMO_LIMIT)][];
+			mMemoTypes = new int[mMemoNames.length];
+			mMemoCount = 0;
+		}
+
+		// a power of two, with a load factor of at most one half
+		private static int tableSize(int count) {
+			int size = 16;
+			while (size < count * 2) {
+				size <<= 1;
+			}
+			return size;
+		}
+
+		private static int hash(char[] chars, int offset, int length) {
+			int hash = 0;
+			for (int i = offset, end = offset + length; i < end; i++) {
+				hash = 31 * hash + chars[i];
+			}
+			return hash ^ (hash >>> 16);
+		}
+
+		private static int lookup(char[][] names, char[] chars, int offset, int length) {
+			int mask = names.length - 1;
+			int index = hash(chars, offset, length) & mask;
+			while (names[index] != null) {
+				if (equals(names[index], chars, offset, length))
+					return index;
+				index = (index + 1) & mask;
+			}
+			return -1;
+		}
 
-	private boolean isMutator(String symbol) {
-		return mMutators.contains(symbol) || matchesRegexp(symbol, mMutatorPattern);
+		private static void insert(char[][] names, int[] types, char[] name, int type) {
+			int mask = names.length - 1;
+			int index = hash(name, 0, name.length) & mask;
+			while (names[index] != null) {
+				index = (index + 1) & mask;
+			}
+			names[index] = name;
+			types[index] = type;
+		}
+
+		private static boolean equals(char[] name, char[] chars, int offset, int length) {
+			if (name.length != length)
+				return false;
+			for (int i = 0; i < length; i++) {
+				if (name[i] != chars[offset + i])
+					return false;
+			}
+			return true;
+		}
 	}
 
-	private boolean isConstant(String symbol) {
-		return mConstants.contains(symbol) || matchesRegexp(symbol, mConstantPattern);
+	/*
+	 * A reusable view of a range of characters, for the regular expressions.
+	 */
+	private static final class CharArraySequence implements CharSequence {
+		private char[] mChars;
+		private int mOffset;
+		private int mLength;
+
+		void set(char[] chars, int offset, int length) {
+			mChars = chars;
+			mOffset = offset;
+			mLength = length;
+		}
+
+		public int length() {
+			return mLength;
+		}
+
+		public char charAt(int index) {
+			return mChars[mOffset + index];
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return new String(mChars, mOffset + start, end - start);
+		}
+
+		public String toString() {
+			return new String(mChars, mOffset, mLength);
+		}
 	}
-	
+
 	public void saveValues() {
 		IPreferenceStore store = SchemeScriptPlugin.getDefault().getPreferenceStore();
         PreferenceUtil.setKeywords(store, SyntaxPreferences.SYNTAX_DEFINE, getDefines());
@@ -18,7 +18,8 @@ public class SchemeReader {
 
 	private void initializeScanner(IDocument document, int start, int end) {
 		mDocument = document;
-		mScanner = new SchemeScanner();
+		if (mScanner == null)
+			mScanner = new SchemeScanner();
 		mStart = start;
 		mEnd = start;
 		mScanner.setRange(document, start, end - start);
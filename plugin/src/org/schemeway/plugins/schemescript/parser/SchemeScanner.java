@@ -5,18 +5,25 @@
  */
 package org.schemeway.plugins.schemescript.parser;
 
-import java.util.regex.*;
-
 import org.eclipse.jface.text.*;
 
+/**
+ * The Scheme lexer. The scanner reads either a document, through a
+ * {@link DocumentCharBuffer}, or a character array.
+ * <p>
+ * To avoid allocations in the scanning loop, <code>nextToken</code> always
+ * returns the same token object, updated for each token. A token is only
+ * valid until the next call to <code>nextToken</code>.
+ */
 public class SchemeScanner {
 
-	private static final Pattern NUMBER_REGEXP = Pattern.compile("([0-9]+(\\.[0-9]+(e[+-]?[0-9]+)?)?)|(#x[0-9a-fA-f]+)|(#o[0-7]+)|(#b[01]+)"); 
-	
     public SchemeScanner() {
     }
 
     private IDocument mDocument = null;
+    private char[] mText = null;
+    private final DocumentCharBuffer mDocumentText = new DocumentCharBuffer();
+    private final SchemeToken mToken = new SchemeToken(SchemeToken.ERROR, -1, -1);
 
     private int mRangeStart = -1;
     private int mRangeEnd = -1;
@@ -33,6 +40,11 @@ public class SchemeScanner {
         return mTokenStart;
     }
 
+    private SchemeToken token(int type, int length) {
+        mToken.set(type, mTokenStart, length);
+        return mToken;
+    }
+
     public SchemeToken nextToken() {
         // start a new token
         mTokenStart = mTokenEnd;
@@ -47,7 +59,7 @@ public class SchemeScanner {
                 {
                     if (SchemeScannerUtilities.bracketsAreParentheses()) {
                         consume();
-                        return SchemeToken.createLeftParen(getTokenOffset());
+                        return token(SchemeToken.LPAREN, 1);
                     }
                     else
                         return parseDefaultToken(ch);
@@ -55,14 +67,14 @@ public class SchemeScanner {
                 case '(':
                 {
                     consume();
-                    return SchemeToken.createLeftParen(getTokenOffset());
+                    return token(SchemeToken.LPAREN, 1);
                 }
                 case ']':
                 case '}':
                 {
                     if (SchemeScannerUtilities.bracketsAreParentheses()) {
                         consume();
-                        return SchemeToken.createRightParen(getTokenOffset());
+                        return token(SchemeToken.RPAREN, 1);
                     }
                     else
                         return parseDefaultToken(ch);
@@ -70,7 +82,7 @@ public class SchemeScanner {
                 case ')':
                 {
                     consume();
-                    return SchemeToken.createRightParen(getTokenOffset());
+                    return token(SchemeToken.RPAREN, 1);
                 }
                 case '|':
                 {
@@ -98,12 +110,12 @@ public class SchemeScanner {
                 case '\'':
                 {
                     consume();
-                    return SchemeToken.createQuote(getTokenOffset());
+                    return token(SchemeToken.QUOTE, 1);
                 }
                 case '`':
                 {
                     consume();
-                    return SchemeToken.createBackquote(getTokenOffset());
+                    return token(SchemeToken.BACKQUOTE, 1);
                 }
                 case ',':
                 {
@@ -111,10 +123,10 @@ public class SchemeScanner {
                     ch = lookahead();
                     if (ch != EOR && ch == '@') {
                         consume();
-                        return SchemeToken.createUnquoteSplicing(getTokenOffset());
+                        return token(SchemeToken.UNQUOTE_SPLICING, 2);
                     }
                     else
-                        return SchemeToken.createUnquote(getTokenOffset());
+                        return token(SchemeToken.UNQUOTE, 1);
                 }
                 default:
                     return parseDefaultToken(ch);
@@ -143,10 +155,10 @@ public class SchemeScanner {
 		}
 		if (ch == '|') {
 			consume();
-			return SchemeToken.createSymbol(getTokenOffset(), getTokenLength());
+			return token(SchemeToken.SYMBOL, getTokenLength());
 		}
 		else {
-			return SchemeToken.createError(getTokenOffset(), getTokenLength());
+			return token(SchemeToken.ERROR, getTokenLength());
 		}
 	}
 
@@ -158,34 +170,95 @@ public class SchemeScanner {
                 consume();
                 ch = lookahead();
             }
-            if (getTokenLength() == 1 && mDocument.getChar(mTokenStart) == '.')
-            	return SchemeToken.createDot(getTokenOffset());
+            if (getTokenLength() == 1 && charAt(mTokenStart) == '.')
+            	return token(SchemeToken.DOT, 1);
             else
             {
-                String tokenText = getText(getTokenOffset(), getTokenLength());
-                if (NUMBER_REGEXP.matcher(tokenText).matches())
+                if (isNumber(mTokenStart, mTokenEnd))
                 {
-                	return SchemeToken.createConstant(getTokenOffset(), getTokenLength());
+                	return token(SchemeToken.CONSTANT, getTokenLength());
                 }
-            	return SchemeToken.createSymbol(getTokenOffset(), getTokenLength());
+            	return token(SchemeToken.SYMBOL, getTokenLength());
             }
         }
         else {
             consume();
-            String tokenText = getText(getTokenOffset(), getTokenLength());
-            if (NUMBER_REGEXP.matcher(tokenText).matches())
+            if (isNumber(mTokenStart, mTokenEnd))
             {
-            	return SchemeToken.createConstant(getTokenOffset(), getTokenLength());
+            	return token(SchemeToken.CONSTANT, getTokenLength());
+            }
+            return token(SchemeToken.DEFAULT, getTokenLength());
+        }
+    }
+
+    /*
+     * Recognizes the numbers highlighted as constants:
+     *   [0-9]+(\.[0-9]+(e[+-]?[0-9]+)?)?, #x[0-9a-fA-F]+, #o[0-7]+ and #b[01]+
+     */
+    private boolean isNumber(int start, int end) throws BadLocationException {
+        if (start >= end)
+            return false;
+        if (charAt(start) == '#') {
+            if (end - start < 3)
+                return false;
+            int radix;
+            switch (charAt(start + 1)) {
+                case 'x': radix = 16; break;
+                case 'o': radix = 8; break;
+                case 'b': radix = 2; break;
+                default: return false;
             }
-            return SchemeToken.createDefault(getTokenOffset(), getTokenLength());
+            for (int position = start + 2; position < end; position++) {
+                if (!isDigit(charAt(position), radix))
+                    return false;
+            }
+            return true;
+        }
+
+        int position = skipDigits(start, end);
+        if (position == start)
+            return false;
+        if (position == end)
+            return true;
+        if (charAt(position) != '.')
+            return false;
+        int fractionStart = position + 1;
+        position = skipDigits(fractionStart, end);
+        if (position == fractionStart)
+            return false;
+        if (position == end)
+            return true;
+        if (charAt(position) != 'e')
+            return false;
+        position++;
+        if (position < end && (charAt(position) == '+' || charAt(position) == '-'))
+            position++;
+        int exponentStart = position;
+        position = skipDigits(exponentStart, end);
+        return position != exponentStart && position == end;
+    }
+
+    private static boolean isDigit(char ch, int radix) {
+        if (ch >= '0' && ch <= '9')
+            return ch - '0' < radix;
+        return radix == 16 && ((ch >= 'a' && ch <= 'f') || (ch >= 'A' && ch <= 'F'));
+    }
+
+    private int skipDigits(int position, int end) throws BadLocationException {
+        while (position < end) {
+            char ch = charAt(position);
+            if (ch < '0' || ch > '9')
+                break;
+            position++;
         }
+        return position;
     }
 
     private SchemeToken parseWhitespace() throws BadLocationException {
         consume();
         while (SchemeScannerUtilities.isWhitespaceChar(lookahead()))
             consume();
-        return SchemeToken.createWhitespace(getTokenOffset(), getTokenLength());
+        return token(SchemeToken.WSPACE, getTokenLength());
     }
 
     private SchemeToken parseComment(boolean multiline) throws BadLocationException {
@@ -207,9 +280,9 @@ public class SchemeScanner {
                 ch = lookahead();
             }
             if (ch != EOR)
-                return SchemeToken.createComment(getTokenOffset(), getTokenLength());
+                return token(SchemeToken.COMMENT, getTokenLength());
             else
-                return SchemeToken.createError(getTokenOffset(), getTokenLength());
+                return token(SchemeToken.ERROR, getTokenLength());
         }
         else {
             // we assume that the leading ';' has been seen
@@ -219,7 +292,7 @@ public class SchemeScanner {
                 consume();
                 ch = lookahead();
             }
-            return SchemeToken.createComment(getTokenOffset(), getTokenLength());
+            return token(SchemeToken.COMMENT, getTokenLength());
         }
     }
 
@@ -241,9 +314,9 @@ public class SchemeScanner {
             ch = lookahead();
         }
         if (ch != EOR)
-            return SchemeToken.createString(getTokenOffset(), getTokenLength());
+            return token(SchemeToken.STRING, getTokenLength());
         else
-            return SchemeToken.createError(getTokenOffset(), getTokenLength());
+            return token(SchemeToken.ERROR, getTokenLength());
     }
 
 
@@ -251,41 +324,54 @@ public class SchemeScanner {
 		consume();
 		if (lookahead() == '<') {
 			consume();
-			String tag = readToEndOfLine();
-			String nextLine = readToEndOfLine();
-			while (nextLine != null && !nextLine.equals(tag)) {
-				nextLine = readToEndOfLine();
+			int tagStart = getPosition();
+			int tagLength = readToEndOfLine();
+			int lineStart = getPosition();
+			int lineLength = readToEndOfLine();
+			while (lineLength >= 0 && !regionsMatch(lineStart, lineLength, tagStart, tagLength)) {
+				lineStart = getPosition();
+				lineLength = readToEndOfLine();
 			}
 
-			return SchemeToken.createString(getTokenOffset(), getTokenLength());
+			return token(SchemeToken.STRING, getTokenLength());
 		}
 		else {
-			return SchemeToken.createError(getTokenOffset(), getTokenLength());
+			return token(SchemeToken.ERROR, getTokenLength());
 		}
 	}
 
 	
-	private String readToEndOfLine() {
+	/*
+	 * Skips the rest of the current line and the line delimiters that follow.
+	 * Returns the length of the text skipped, without the delimiters, or -1
+	 * at the end of the range.
+	 */
+	private int readToEndOfLine() throws BadLocationException {
 		int startPosition = getPosition();
 		if (isEndPosition(startPosition)) {
-			return null;
+			return -1;
 		}
-		try {
-			IRegion lineInfo = mDocument.getLineInformationOfOffset(startPosition);
-			int length = lineInfo.getLength() - (startPosition - lineInfo.getOffset());
-			mTokenEnd = startPosition + length;
-			char ch = lookahead();
-			while (ch == '\n' || ch == '\r') {
-				consume();
-				ch = lookahead();
-			}
-			return mDocument.get(startPosition, length);
-
+		char ch = lookahead();
+		while (ch != EOR && ch != '\n' && ch != '\r') {
+			consume();
+			ch = lookahead();
 		}
-		catch (BadLocationException e) {
-			return null;
+		int length = getPosition() - startPosition;
+		while (ch == '\n' || ch == '\r') {
+			consume();
+			ch = lookahead();
 		}
+		return length;
+	}
 
+	private boolean regionsMatch(int start1, int length1, int start2, int length2) throws BadLocationException {
+		if (length1 != length2)
+			return false;
+		for (int i = 0; i < length1; i++) {
+			if (charAt(start1 + i) != charAt(start2 + i))
+				return false;
+		}
+		return true;
 	}
 
     private SchemeToken parsePoundPrefixedToken() throws BadLocationException {
@@ -297,27 +383,27 @@ public class SchemeScanner {
             case 'f':
             {
                 consume();
-                return SchemeToken.createConstant(getTokenOffset(), getTokenLength());
+                return token(SchemeToken.CONSTANT, getTokenLength());
             }
             case '\'':
             {
             	consume();
-            	return SchemeToken.createQuote(getTokenOffset(), getTokenLength());
+            	return token(SchemeToken.QUOTE, getTokenLength());
             }
             case '`':
             {
             	consume();
-            	return SchemeToken.createBackquote(getTokenOffset(), getTokenLength());
+            	return token(SchemeToken.BACKQUOTE, getTokenLength());
             }
             case ',':
             {
             	consume();
-            	return SchemeToken.createUnquote(getTokenOffset(), getTokenLength());
+            	return token(SchemeToken.UNQUOTE, getTokenLength());
             }
             case ';': 
             {
             	consume();
-            	return SchemeToken.createSexprCommentPrefix(getTokenOffset());
+            	return token(SchemeToken.EXPR_COMMENT_PREFIX, 2);
             }
             case '!':
             {
@@ -329,7 +415,7 @@ public class SchemeScanner {
             }
             case '(':
             {
-                return SchemeToken.createVectorPrefix(getTokenOffset());
+                return token(SchemeToken.VECTORPREFIX, 1);
             }
             case '<':
             {
@@ -356,14 +442,14 @@ public class SchemeScanner {
             while (Character.isLetter(lookahead())) {
                 consume();
             }
-            return SchemeToken.createConstant(getTokenOffset(), getTokenLength());
+            return token(SchemeToken.CONSTANT, getTokenLength());
         }
         else if (ch != EOR && !(SchemeScannerUtilities.isWhitespaceChar(ch))) {
             consume();
-            return SchemeToken.createConstant(getTokenOffset(), getTokenLength());
+            return token(SchemeToken.CONSTANT, getTokenLength());
         }
         else
-            return SchemeToken.createError(getTokenOffset(), getTokenLength());
+            return token(SchemeToken.ERROR, getTokenLength());
     }
 
     private SchemeToken parseSpecialKeyword() throws BadLocationException {
@@ -373,10 +459,10 @@ public class SchemeScanner {
             while (Character.isLetter(lookahead())) {
                 consume();
             }
-            return SchemeToken.createSpecial(getTokenOffset(), getTokenLength());
+            return token(SchemeToken.SPECIAL, getTokenLength());
         }
         else
-            return SchemeToken.createError(getTokenOffset(), getTokenLength());
+            return token(SchemeToken.ERROR, getTokenLength());
     }
 
     private final void consume() {
@@ -385,7 +471,11 @@ public class SchemeScanner {
     }
 
     private final char lookahead() throws BadLocationException {
-        return (mTokenEnd < mRangeEnd) ? mDocument.getChar(mTokenEnd) : EOR;
+        return (mTokenEnd < mRangeEnd) ? charAt(mTokenEnd) : EOR;
+    }
+
+    private final char charAt(int position) throws BadLocationException {
+        return (mText != null) ? mText[position] : mDocumentText.charAt(position);
     }
 
     private int getPosition() {
@@ -398,6 +488,8 @@ public class SchemeScanner {
 
 
     public String getText(int offset, int length) {
+        if (mText != null)
+            return new String(mText, offset, length);
         try {
             return mDocument.get(offset, length);
         }
@@ -408,6 +500,20 @@ public class SchemeScanner {
 
     public void setRange(IDocument document, int offset, int length) {
         mDocument = document;
+        mDocumentText.reset(document, offset, offset + length);
+        mText = null;
+        mRangeStart = offset;
+        mRangeEnd = offset + length;
+        mTokenStart = mTokenEnd = mRangeStart;
+    }
+
+    /**
+     * Scans the characters of <code>text</code> in the given range. The
+     * token offsets are indices in <code>text</code>.
+     */
+    public void setRange(char[] text, int offset, int length) {
+        mDocument = null;
+        mText = text;
         mRangeStart = offset;
         mRangeEnd = offset + length;
         mTokenStart = mTokenEnd = mRangeStart;
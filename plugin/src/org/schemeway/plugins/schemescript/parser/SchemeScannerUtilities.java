@@ -48,11 +48,17 @@ public final class SchemeScannerUtilities {
     }
     
     public static final void setBracketsAreParentheses(boolean value) {
-        mBracketsAsParenthesis = value;
+        if (mBracketsAsParenthesis != value) {
+            mBracketsAsParenthesis = value;
+            SchemeTokenIndex.invalidateAll();
+        }
     }
 
     public static final void setDashInIdentifiers(boolean value) {
-        mDashInIdentifiers = value;
+        if (mDashInIdentifiers != value) {
+            mDashInIdentifiers = value;
+            SchemeTokenIndex.invalidateAll();
+        }
     }
 
     public final static boolean isParenthesis(char ch) {
@@ -49,6 +49,13 @@ public final class SchemeToken {
         return mLength;
     }
 
+    // Used by the scanner, which reuses its token
+    void set(int type, int offset, int length) {
+        mType = type;
+        mOffset = offset;
+        mLength = length;
+    }
+
     /* --- Token factory methods --- */
 
     public static SchemeToken createLeftParen(int offset) {
@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.parser;
+
+import java.lang.ref.*;
+import java.util.*;
+
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.jface.text.*;
+import org.schemeway.plugins.schemescript.editor.*;
+
+/**
+ * A per-document index of Scheme tokens, shared by the S-expression
+ * navigation, the indentation and the syntax coloring.
+ * <p>
+ * The index is kept up to date from document events. After a change, only
+ * the damaged tokens are re-scanned, until the new tokens re-synchronize with
+ * the old ones. String and here-string partitions are recorded as a single
+ * <code>STRING</code> token, and comment partitions as a single
+ * <code>COMMENT</code> token.
+ * <p>
+ * Tokens are stored in parallel arrays organized as a gap buffer. The offsets
+ * of the tokens after the gap are relative to the end of the document, so an
+ * edit only moves the tokens between the previous edit and the current one.
+ * A {@link BracketDepthTree} over the same slots finds matching and enclosing
+ * delimiters in logarithmic time.
+ *
+ * @author SchemeWay Project.
+ */
+public final class SchemeTokenIndex implements IDocumentListener {
+
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int PARTITION_TOKEN = 0x100;
+	private static final int TYPE_MASK = 0xff;
+
+	private static final Map sIndexes = new WeakHashMap();
+	private static int sGeneration = 0;
+
+	private WeakReference mDocument;
+	private SchemeScanner mScanner = new SchemeScanner();
+
+	private int[] mOffsets = new int[INITIAL_CAPACITY];
+	private int[] mLengths = new int[INITIAL_CAPACITY];
+	private int[] mTypes = new int[INITIAL_CAPACITY];
+	private int mGapStart = 0;
+	private int mGapEnd = INITIAL_CAPACITY;
+	private int mDocumentLength = 0;
+	private BracketDepthTree mBrackets = new BracketDepthTree(INITIAL_CAPACITY);
+
+	private boolean mInitialized = false;
+	private int mGeneration;
+
+	private boolean mChangePending = false;
+	private int mChangeOffset;
+	private int mChangeLength;
+	private int mChangeTextLength;
+	private long mChangeStamp;
+
+	private SchemeTokenIndex(IDocument document) {
+		mDocument = new WeakReference(document);
+		mGeneration = sGeneration;
+		document.addDocumentListener(this);
+	}
+
+	/**
+	 * Returns the token index of the document, creating it if needed.
+	 */
+	public static SchemeTokenIndex getIndex(IDocument document) {
+		Assert.isNotNull(document);
+		synchronized (sIndexes) {
+			SchemeTokenIndex index = (SchemeTokenIndex) sIndexes.get(document);
+			if (index == null) {
+				index = new SchemeTokenIndex(document);
+				sIndexes.put(document, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Forces all the token indexes to be rebuilt. Must be called when the
+	 * lexical preferences change.
+	 */
+	public static void invalidateAll() {
+		synchronized (sIndexes) {
+			sGeneration++;
+		}
+	}
+
+	public IDocument getDocument() {
+		return (IDocument) mDocument.get();
+	}
+
+	/* -- Queries -- */
+
+	public synchronized int getTokenCount() {
+		update();
+		return count();
+	}
+
+	/**
+	 * Returns the index of the token containing <code>offset</code>, or the
+	 * token count if <code>offset</code> is at or past the end of the
+	 * document.
+	 */
+	public synchronized int findToken(int offset) {
+		update();
+		if (offset >= mDocumentLength) {
+			return count();
+		}
+		int low = 0;
+		int high = count() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (offsetAt(middle) <= offset) {
+				low = middle;
+			}
+			else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	public synchronized int getTokenOffset(int index) {
+		update();
+		return offsetAt(index);
+	}
+
+	public synchronized int getTokenLength(int index) {
+		update();
+		return mLengths[physical(index)];
+	}
+
+	public synchronized int getTokenType(int index) {
+		update();
+		return mTypes[physical(index)] & TYPE_MASK;
+	}
+
+	public synchronized SchemeToken getToken(int index) {
+		update();
+		int position = physical(index);
+		return new SchemeToken(mTypes[position] & TYPE_MASK, offsetAt(index), mLengths[position]);
+	}
+
+	/**
+	 * Returns the index of the first token, starting at <code>index</code>,
+	 * that closes the list opened <code>depth</code> levels above the token at
+	 * <code>index</code>, or -1 if there is none.
+	 */
+	public synchronized int findClosingToken(int index, int depth) {
+		update();
+		if (index < 0 || index >= count()) {
+			return -1;
+		}
+		return logical(mBrackets.findForward(physical(index), -depth));
+	}
+
+	/**
+	 * Returns the index of the last token, up to <code>index</code>, that
+	 * opens the list <code>depth</code> levels above the token following
+	 * <code>index</code>, or -1 if there is none.
+	 */
+	public synchronized int findOpeningToken(int index, int depth) {
+		update();
+		if (index < 0 || index >= count()) {
+			return -1;
+		}
+		return logical(mBrackets.findBackward(physical(index) + 1, depth));
+	}
+
+	/**
+	 * Returns the number of lists that are still open after the token at
+	 * <code>index</code>.
+	 */
+	public synchronized int getOpenListCount(int index) {
+		update();
+		if (index < 0) {
+			return 0;
+		}
+		if (index >= count()) {
+			index = count() - 1;
+		}
+		return mBrackets.maxSuffix(physical(index) + 1);
+	}
+
+	/**
+	 * Adds the tokens starting in [<code>offset</code>, <code>end</code>)
+	 * to <code>balance</code>.
+	 */
+	synchronized void addTokens(DelimiterBalance balance, int offset, int end) {
+		int count = getTokenCount();
+		for (int index = findToken(offset); index < count; index++) {
+			int tokenOffset = offsetAt(index);
+			if (tokenOffset >= end) {
+				break;
+			}
+			if (tokenOffset >= offset) {
+				balance.addToken(mTypes[physical(index)] & TYPE_MASK, tokenOffset);
+			}
+		}
+	}
+
+	/* -- Document listener -- */
+
+	public synchronized void documentAboutToBeChanged(DocumentEvent event) {
+		if (mChangePending) {
+			// we missed a notification, start over
+			mInitialized = false;
+		}
+		mChangePending = true;
+		mChangeOffset = event.getOffset();
+		mChangeLength = event.getLength();
+		mChangeTextLength = (event.getText() == null ? 0 : event.getText().length());
+		mChangeStamp = getModificationStamp(event.getDocument());
+	}
+
+	public synchronized void documentChanged(DocumentEvent event) {
+		if (mChangePending) {
+			applyChange();
+		}
+	}
+
+	/* -- Maintenance of the index -- */
+
+	private void update() {
+		IDocument document = getDocument();
+		if (document == null) {
+			return;
+		}
+		if (mGeneration != sGeneration) {
+			mGeneration = sGeneration;
+			mInitialized = false;
+		}
+		if (mChangePending && getModificationStamp(document) != mChangeStamp) {
+			// the document has changed, but we were not notified yet
+			applyChange();
+		}
+		if (!mInitialized) {
+			mGapStart = 0;
+			mGapEnd = mOffsets.length;
+			mDocumentLength = document.getLength();
+			mBrackets.reset(mOffsets.length);
+			rescan(document, 0);
+			mInitialized = true;
+		}
+	}
+
+	private static long getModificationStamp(IDocument document) {
+		if (document instanceof IDocumentExtension4) {
+			return ((IDocumentExtension4) document).getModificationStamp();
+		}
+		return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	}
+
+	private void applyChange() {
+		mChangePending = false;
+		IDocument document = getDocument();
+		if (!mInitialized || document == null) {
+			return;
+		}
+
+		int changeEnd = mChangeOffset + mChangeLength;
+		int count = count();
+
+		// The token preceding the damaged one is also re-scanned, since the
+		// scanners look one or two characters past the end of a token.
+		int first = findFirstTokenEndingAt(mChangeOffset);
+		if (first > 0) {
+			first--;
+		}
+		int last = first;
+		while (last < count && offsetAt(last) < changeEnd) {
+			last++;
+		}
+
+		moveGap(first);
+		clearSlots(mGapEnd, mGapEnd + (last - first));
+		mGapEnd += (last - first);
+		mDocumentLength = mDocumentLength - mChangeLength + mChangeTextLength;
+
+		int start = (mGapStart == 0) ? 0 : mOffsets[mGapStart - 1] + mLengths[mGapStart - 1];
+		rescan(document, start);
+	}
+
+	/*
+	 * Scans the document from start, inserting the new tokens in the gap. The
+	 * scan stops as soon as a new token is identical to an old one located
+	 * after the change, since the rest of the index is still valid from there.
+	 */
+	private void rescan(IDocument document, int start) {
+		int end = document.getLength();
+		int position = start;
+		while (position < end) {
+			ITypedRegion partition = SchemeTextUtilities.getPartition(document, position);
+			int partitionEnd = (partition == null) ? end : partition.getOffset() + partition.getLength();
+			if (partitionEnd <= position) {
+				break;
+			}
+			String type = (partition == null) ? IDocument.DEFAULT_CONTENT_TYPE : partition.getType();
+
+			if (SchemePartitionScanner.isStringPartition(type) || type == SchemePartitionScanner.SCHEME_COMMENT) {
+				int partitionStart = partition.getOffset();
+				while (mGapStart > 0 && mOffsets[mGapStart - 1] >= partitionStart) {
+					mGapStart--;
+					mBrackets.set(mGapStart, 0);
+				}
+				int tokenType = (type == SchemePartitionScanner.SCHEME_COMMENT ? SchemeToken.COMMENT
+						: SchemeToken.STRING);
+				if (addToken(partitionStart, partitionEnd - partitionStart, tokenType | PARTITION_TOKEN)) {
+					return;
+				}
+			}
+			else {
+				mScanner.setRange(document, position, partitionEnd - position);
+				SchemeToken token = mScanner.nextToken();
+				while (token != SchemeToken.EOF) {
+					if (addToken(token.getOffset(), token.getLength(), token.getType())) {
+						return;
+					}
+					token = mScanner.nextToken();
+				}
+			}
+			position = partitionEnd;
+		}
+		// end of document reached, the remaining old tokens are obsolete
+		clearSlots(mGapEnd, mOffsets.length);
+		mGapEnd = mOffsets.length;
+	}
+
+	/*
+	 * Adds a new token before the gap. Returns true if the token is the same as
+	 * the first old token after the gap.
+	 */
+	private boolean addToken(int offset, int length, int type) {
+		int capacity = mOffsets.length;
+		while (mGapEnd < capacity && mOffsets[mGapEnd] + mDocumentLength < offset) {
+			mBrackets.set(mGapEnd, 0);
+			mGapEnd++;
+		}
+		if (mGapEnd < capacity
+				&& mOffsets[mGapEnd] + mDocumentLength == offset
+				&& mLengths[mGapEnd] == length
+				&& mTypes[mGapEnd] == type) {
+			return true;
+		}
+
+		if (mGapStart == mGapEnd) {
+			growGap();
+		}
+		mOffsets[mGapStart] = offset;
+		mLengths[mGapStart] = length;
+		mTypes[mGapStart] = type;
+		mBrackets.set(mGapStart, BracketDepthTree.getDelta(type));
+		mGapStart++;
+		return false;
+	}
+
+	private void growGap() {
+		int capacity = mOffsets.length;
+		int newCapacity = capacity * 2;
+		int tail = capacity - mGapEnd;
+		mOffsets = grow(mOffsets, newCapacity, tail);
+		mLengths = grow(mLengths, newCapacity, tail);
+		mTypes = grow(mTypes, newCapacity, tail);
+		mGapEnd = newCapacity - tail;
+
+		mBrackets.reset(newCapacity);
+		for (int position = 0; position < mGapStart; position++) {
+			mBrackets.set(position, BracketDepthTree.getDelta(mTypes[position]));
+		}
+		for (int position = mGapEnd; position < newCapacity; position++) {
+			mBrackets.set(position, BracketDepthTree.getDelta(mTypes[position]));
+		}
+	}
+
+	private int[] grow(int[] array, int newCapacity, int tail) {
+		int[] newArray = new int[newCapacity];
+		System.arraycopy(array, 0, newArray, 0, mGapStart);
+		System.arraycopy(array, array.length - tail, newArray, newCapacity - tail, tail);
+		return newArray;
+	}
+
+	private void moveGap(int index) {
+		if (index < mGapStart) {
+			int distance = mGapEnd - mGapStart;
+			for (int position = mGapStart - 1; position >= index; position--) {
+				mOffsets[position + distance] = mOffsets[position] - mDocumentLength;
+				mLengths[position + distance] = mLengths[position];
+				mTypes[position + distance] = mTypes[position];
+				mBrackets.set(position + distance, BracketDepthTree.getDelta(mTypes[position]));
+			}
+			clearSlots(index, Math.min(mGapStart, index + distance));
+			mGapEnd -= (mGapStart - index);
+			mGapStart = index;
+		}
+		else if (index > mGapStart) {
+			int distance = mGapEnd - mGapStart;
+			for (int position = mGapStart; position < index; position++) {
+				mOffsets[position] = mOffsets[position + distance] + mDocumentLength;
+				mLengths[position] = mLengths[position + distance];
+				mTypes[position] = mTypes[position + distance];
+				mBrackets.set(position, BracketDepthTree.getDelta(mTypes[position]));
+			}
+			clearSlots(Math.max(index, mGapEnd), index + distance);
+			mGapEnd += (index - mGapStart);
+			mGapStart = index;
+		}
+	}
+
+	private void clearSlots(int from, int to) {
+		for (int position = from; position < to; position++) {
+			mBrackets.set(position, 0);
+		}
+	}
+
+	/* -- Helpers -- */
+
+	private int count() {
+		return mGapStart + (mOffsets.length - mGapEnd);
+	}
+
+	private int physical(int index) {
+		return (index < mGapStart) ? index : index + (mGapEnd - mGapStart);
+	}
+
+	private int logical(int position) {
+		if (position < 0) {
+			return -1;
+		}
+		return (position < mGapStart) ? position : position - (mGapEnd - mGapStart);
+	}
+
+	private int offsetAt(int index) {
+		if (index < mGapStart) {
+			return mOffsets[index];
+		}
+		return mOffsets[index + (mGapEnd - mGapStart)] + mDocumentLength;
+	}
+
+	/*
+	 * Returns the index of the first token whose end is at or after offset.
+	 */
+	private int findFirstTokenEndingAt(int offset) {
+		int low = 0;
+		int high = count();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (offsetAt(middle) + mLengths[physical(middle)] < offset) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -34,9 +34,9 @@ public class SexpNavigator {
     private ISchemeTokenIterator mBackwardIterator;
     private ISchemeTokenIterator mTokenIterator;
 
-    // TODO - update the tokens incrementally when changes are done to the
-    // document. This way, we could keep only one SexpExplorer for each
-    // SchemeEditor and the tokenization would not be done over and over again
+    // The token iterators read from the document's SchemeTokenIndex, which
+    // is updated incrementally when the document changes. Matching delimiters
+    // are found by the index in logarithmic time.
 
     public SexpNavigator(IDocument document) {
         Assert.isNotNull(document);
@@ -102,6 +102,28 @@ public class SexpNavigator {
         return scanSexpression(DIRECTION_BACKWARD, SchemeToken.RPAREN, SchemeToken.LPAREN, start, -1);
     }
 
+    /**
+     * Finds the outermost list enclosing <code>start</code>, the one repeated
+     * calls to <code>upSexpression</code> would end on, and jumps over it.
+     */
+    public boolean topLevelSexpression(int start) {
+        SchemeTokenIndex index = SchemeTokenIndex.getIndex(mDocument);
+        int last = (start <= 0) ? -1 : Math.min(index.findToken(start - 1), index.getTokenCount() - 1);
+        int depth = index.getOpenListCount(last);
+        if (depth == 0)
+            return false;
+
+        int open = index.findOpeningToken(last, depth);
+        if (open < 0)
+            return false;
+        int top = index.getTokenOffset(open);
+        setupIterator(DIRECTION_BACKWARD, top);
+        SchemeToken previousToken = mTokenIterator.nextToken(false);
+        if (syntacticPrefixType(previousToken.getType()))
+            top = previousToken.getOffset();
+        return forwardSexpression(top);
+    }
+
     public boolean downSexpression(int start) {
         setupIterator(DIRECTION_FORWARD, start);
 
@@ -168,22 +190,8 @@ public class SexpNavigator {
                         mSexpEnd = currentToken.getOffset() + currentToken.getLength();
 
                     int level = (type == enteringType ? 1 : 0);
-                    boolean done = false;
-                    do {
-                        currentToken = mTokenIterator.nextToken();
-                        type = currentToken.getType();
-                        if (currentToken == SchemeToken.EOF)
-                            done = true;
-                        else {
-                            if (type == enteringType)
-                                level++;
-                            else
-                                if (type == exitingType)
-                                    level--;
-                            done = (level == endLevel);
-                        }
-                    }
-                    while (!done);
+                    currentToken = mTokenIterator.skipToEnclosingDelimiter(level - endLevel);
+                    type = currentToken.getType();
 
                     if (type == exitingType) {
                         mSexpType = TYPE_LIST;
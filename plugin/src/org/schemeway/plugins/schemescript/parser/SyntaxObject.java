@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.parser;
+
+import gnu.lists.*;
+
+/**
+ * A datum read from a document, with its position in the document. Syntax
+ * objects are created by {@link SyntaxReader} and are used by the Scheme
+ * code of the plugin through the <code>stx-object</code> procedures of
+ * <code>reader.scm</code>.
+ * <p>
+ * The type is one of the symbols <code>list</code>, <code>vector</code>,
+ * <code>symbol</code>, <code>constant</code>, <code>special</code> and
+ * <code>string</code>. The data of a list is the list of its elements, of a
+ * vector the vector of its elements, of a constant its value, and of the
+ * other types their text. The parent of a syntax object is the list or
+ * vector containing it, or <code>#f</code>.
+ *
+ * @author SchemeWay Project.
+ */
+public final class SyntaxObject {
+	public static final String LIST = "list";
+	public static final String VECTOR = "vector";
+	public static final String SYMBOL = "symbol";
+	public static final String CONSTANT = "constant";
+	public static final String SPECIAL = "special";
+	public static final String STRING = "string";
+
+	private final Object mType;
+	private final int mOffset;
+	private final int mLength;
+	private final Object mData;
+	private Object mParent;
+	private Object mAnnotations;
+
+	public SyntaxObject(Object type, int offset, int length, Object data) {
+		this(type, offset, length, data, Boolean.FALSE, LList.Empty);
+	}
+
+	public SyntaxObject(Object type, int offset, int length, Object data, Object parent, Object annotations) {
+		mType = type;
+		mOffset = offset;
+		mLength = length;
+		mData = data;
+		mParent = parent;
+		mAnnotations = annotations;
+	}
+
+	public Object getType() {
+		return mType;
+	}
+
+	public int getOffset() {
+		return mOffset;
+	}
+
+	public int getLength() {
+		return mLength;
+	}
+
+	public Object getData() {
+		return mData;
+	}
+
+	public Object getParent() {
+		return mParent;
+	}
+
+	public void setParent(Object parent) {
+		mParent = parent;
+	}
+
+	public Object getAnnotations() {
+		return mAnnotations;
+	}
+
+	public void setAnnotations(Object annotations) {
+		mAnnotations = annotations;
+	}
+
+	public String toString() {
+		return "#[SyntaxObject: " + mType + " at " + mOffset + "]";
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2004-2006 SchemeWay Project. All rights reserved.
+ */
+package org.schemeway.plugins.schemescript.parser;
+
+import gnu.kawa.lispexpr.*;
+import gnu.lists.*;
+import gnu.mapping.*;
+import gnu.math.*;
+import gnu.text.*;
+
+import org.eclipse.jface.text.*;
+
+/**
+ * Reads the data of a document as {@link SyntaxObject}s. This is the reader
+ * behind <code>stx-read</code> and <code>stx-read-all</code>, which feed the
+ * definition walkers of the dictionary and the syntax error markers.
+ * <p>
+ * Syntax errors are reported to a Scheme procedure taking a message, an
+ * offset and a length. The procedure normally escapes, by throwing
+ * <code>syntax-error</code>; if it returns, its value is the result of the
+ * read.
+ *
+ * @author SchemeWay Project.
+ */
+public final class SyntaxReader {
+	private static final int NO_TOKEN = -2;
+
+	private final SchemeScanner mScanner = new SchemeScanner();
+	private final IDocument mDocument;
+	private final Procedure mErrorHandler;
+
+	// the current token, NO_TOKEN once consumed
+	private int mTokenType = NO_TOKEN;
+	private int mTokenOffset;
+	private int mTokenLength;
+
+	private SyntaxReader(IDocument document, Procedure errorHandler) {
+		mDocument = document;
+		mErrorHandler = errorHandler;
+	}
+
+	/**
+	 * Reads the datum following <code>offset</code> in the document. Returns
+	 * <code>#f</code> if there is none.
+	 */
+	public static Object read(IDocument document, int offset, Procedure errorHandler) throws Throwable {
+		return new SyntaxReader(document, errorHandler).readFrom(offset);
+	}
+
+	/**
+	 * Reads all the data of the document and returns them in a list. When
+	 * <code>processor</code> is a procedure, it is called with each syntax
+	 * object read, then with <code>#f</code>.
+	 */
+	public static LList readAll(IDocument document, Object processor, Procedure errorHandler) throws Throwable {
+		SyntaxReader reader = new SyntaxReader(document, errorHandler);
+		LList objects = LList.Empty;
+		Pair last = null;
+		// each datum read leaves the scanner at its end, where the next
+		// datum is read
+		reader.mScanner.setRange(document, 0, document.getLength());
+		while (true) {
+			Object object = reader.readNext();
+			if (processor instanceof Procedure)
+				((Procedure) processor).apply1(object);
+			if (!(object instanceof SyntaxObject))
+				return objects;
+
+			Pair pair = new Pair(object, LList.Empty);
+			if (last == null)
+				objects = pair;
+			else
+				last.cdr = pair;
+			last = pair;
+		}
+	}
+
+	private Object readFrom(int offset) throws Throwable {
+		mScanner.setRange(mDocument, offset, mDocument.getLength() - offset);
+		return readNext();
+	}
+
+	private Object readNext() throws Throwable {
+		mTokenType = NO_TOKEN;
+		try {
+			return readDatum();
+		}
+		catch (ReadError error) {
+			return error.getResult();
+		}
+	}
+
+	private int nextToken() throws Throwable {
+		if (mTokenType != NO_TOKEN)
+			return mTokenType;
+
+		while (true) {
+			SchemeToken token = mScanner.nextToken();
+			int type = token.getType();
+			if (type == SchemeToken.EXPR_COMMENT_PREFIX) {
+				readDatum();
+			}
+			else if (type != SchemeToken.COMMENT && type != SchemeToken.WSPACE) {
+				mTokenType = type;
+				mTokenOffset = token.getOffset();
+				mTokenLength = token.getLength();
+				return type;
+			}
+		}
+	}
+
+	private void consume() {
+		mTokenType = NO_TOKEN;
+	}
+
+	private Object readDatum() throws Throwable {
+		switch (nextToken()) {
+			case SchemeToken.EOFTOK:
+				return Boolean.FALSE;
+			case SchemeToken.LPAREN:
+				return readList();
+			case SchemeToken.VECTORPREFIX:
+				return readVector();
+			case SchemeToken.RPAREN:
+				throw error("Misplaced closing parenthesis", mTokenOffset, mTokenLength);
+			case SchemeToken.CONSTANT:
+				return readConstant();
+			case SchemeToken.QUOTE:
+				return readQuotation("quote");
+			case SchemeToken.UNQUOTE:
+				return readQuotation("unquote");
+			case SchemeToken.UNQUOTE_SPLICING:
+				return readQuotation("unquote-splicing");
+			case SchemeToken.BACKQUOTE:
+				return readQuotation("quasiquote");
+			case SchemeToken.STRING:
+				return readText(SyntaxObject.STRING);
+			case SchemeToken.SPECIAL:
+				return readText(SyntaxObject.SPECIAL);
+			default:
+				return readText(SyntaxObject.SYMBOL);
+		}
+	}
+
+	private SyntaxObject readQuotation(String symbol) throws Throwable {
+		int offset = mTokenOffset;
+		int length = mTokenLength;
+		consume();
+		Object element = readDatum();
+		if (!(element instanceof SyntaxObject))
+			throw error("Missing quoted expression", offset, length);
+
+		SyntaxObject quoted = (SyntaxObject) element;
+		SyntaxObject head = new SyntaxObject(SyntaxObject.SYMBOL, offset, length, symbol);
+		LList elements = new Pair(head, new Pair(quoted, LList.Empty));
+		SyntaxObject list = new SyntaxObject(SyntaxObject.LIST, offset, quoted.getOffset() + quoted.getLength() - offset,
+				elements);
+		setParent(list, elements);
+		return list;
+	}
+
+	private SyntaxObject readList() throws Throwable {
+		int offset = mTokenOffset;
+		int length = mTokenLength;
+		consume();
+		Object elements = readElements(false);
+		if (nextToken() != SchemeToken.RPAREN)
+			throw error("Missing closing parenthesis", offset, length);
+
+		length = mTokenOffset + mTokenLength - offset;
+		consume();
+		SyntaxObject list = new SyntaxObject(SyntaxObject.LIST, offset, length, elements);
+		setParent(list, elements);
+		return list;
+	}
+
+	private SyntaxObject readVector() throws Throwable {
+		int offset = mTokenOffset;
+		int length = 2;
+		// the vector prefix is only the '#', followed by the opening
+		// parenthesis
+		consume();
+		nextToken();
+		consume();
+		Object elements = readElements(true);
+		if (nextToken() != SchemeToken.RPAREN)
+			throw error("Missing closing parenthesis", offset, length);
+
+		length = mTokenOffset + mTokenLength - offset;
+		consume();
+		SyntaxObject vector = new SyntaxObject(SyntaxObject.VECTOR, offset, length, new FVector((LList) elements));
+		setParent(vector, elements);
+		return vector;
+	}
+
+	/*
+	 * Reads the elements of a list, up to the closing parenthesis. The list
+	 * returned is improper if the elements end with a dotted element.
+	 */
+	private Object readElements(boolean proper) throws Throwable {
+		Object elements = LList.Empty;
+		Pair last = null;
+		while (true) {
+			int type = nextToken();
+			if (type == SchemeToken.RPAREN || type == SchemeToken.EOFTOK)
+				return elements;
+
+			if (type == SchemeToken.DOT) {
+				if (proper || last == null)
+					throw error("Misplaced '.'", mTokenOffset, mTokenLength);
+				consume();
+				last.cdr = readDatum();
+				return elements;
+			}
+
+			Pair pair = new Pair(readDatum(), LList.Empty);
+			if (last == null)
+				elements = pair;
+			else
+				last.cdr = pair;
+			last = pair;
+		}
+	}
+
+	private static void setParent(SyntaxObject parent, Object elements) {
+		while (elements instanceof Pair) {
+			Pair pair = (Pair) elements;
+			((SyntaxObject) pair.car).setParent(parent);
+			elements = pair.cdr;
+		}
+		if (elements instanceof SyntaxObject)
+			((SyntaxObject) elements).setParent(parent);
+	}
+
+	private SyntaxObject readConstant() throws Throwable {
+		int offset = mTokenOffset;
+		int length = mTokenLength;
+		String text = mScanner.getText(offset, length);
+		consume();
+
+		ScmRead reader = new ScmRead(new CharArrayInPort(text));
+		Object value = reader.readObject();
+		if (reader.seenErrors())
+			throw new SyntaxException(reader.getMessages());
+		return new SyntaxObject(SyntaxObject.CONSTANT, offset, length, value);
+	}
+
+	private SyntaxObject readText(String type) {
+		int offset = mTokenOffset;
+		int length = mTokenLength;
+		String text = mScanner.getText(offset, length);
+		consume();
+		Object data = (type == SyntaxObject.STRING) ? (Object) new FString(text) : text;
+		return new SyntaxObject(type, offset, length, data);
+	}
+
+	private ReadError error(String message, int offset, int length) throws Throwable {
+		return new ReadError(mErrorHandler.apply3(message, IntNum.make(offset), IntNum.make(length)));
+	}
+
+	/*
+	 * Thrown when the error handler returns, to end the read with its value.
+	 */
+	private static final class ReadError extends Exception {
+		private final Object mResult;
+
+		ReadError(Object result) {
+			mResult = result;
+		}
+
+		Object getResult() {
+			return mResult;
+		}
+	}
+}
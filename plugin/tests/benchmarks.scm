@@ -0,0 +1,369 @@
+;;;
+;;;; Performance benchmarks
+;;;
+;;
+;; @created   "Sun Oct 18 10:12:40 EDT 2026"
+;;
+;; Times the scanner, the partitioner, the navigator, the indenter, the
+;; symbol references table and the completion lookup on a fixed corpus:
+;; the Scheme files of the plugin (conf/, examples/ and tests/) and a
+;; synthetic file generated from a fixed seed. The same corpus and the same
+;; operations are used on every run, so that the figures of two versions of
+;; the plugin can be compared.
+;;
+;; The benchmarks run in the plugin's own interpreter, since they need the
+;; plugin classes and the user dictionary. To run them, evaluate in a Scheme
+;; editor or in the scratchpad:
+;;
+;;   (load "<plugin-dir>/tests/benchmarks.scm")
+;;   (run-benchmarks "<plugin-dir>")
+;;
+;; Each benchmark runs a warm-up round, then a number of measured rounds.
+;; The best and mean times of a single operation are reported, in
+;; milliseconds.
+
+
+(define-namespace BenchDocument       "class:org.eclipse.jface.text.Document")
+(define-namespace BenchSetup          "class:org.schemeway.plugins.schemescript.editor.SchemeDocumentSetupParticipant")
+(define-namespace BenchScanner        "class:org.schemeway.plugins.schemescript.parser.SchemeScanner")
+(define-namespace BenchPartitioner    "class:org.schemeway.plugins.schemescript.editor.SchemePartitionScanner")
+(define-namespace BenchIndentation    "class:org.schemeway.plugins.schemescript.indentation.SchemeIndentationStrategy")
+(define-namespace BenchReferences     "class:org.schemeway.plugins.schemescript.dictionary.SymbolReferencesTable")
+(define-namespace BenchSegmentBuilder "class:org.schemeway.plugins.schemescript.dictionary.SymbolReferencesTable$SegmentBuilder")
+
+(define *benchmark-rounds* 10)
+(define *benchmark-eof-token* (static-field <org.schemeway.plugins.schemescript.parser.SchemeToken> 'EOF))
+(define *benchmark-symbol-token* :: <int> (static-field <org.schemeway.plugins.schemescript.parser.SchemeToken> 'SYMBOL))
+
+
+;;;
+;;;; * Timing
+;;;
+
+
+(define (current-milliseconds)
+  (java.lang.System:currentTimeMillis))
+
+
+;; Calls (proc (setup)) count times per round and reports the time of one
+;; call. The count setups of a round are made first, then the calls to proc
+;; are timed as one batch: most calls take less than the clock resolution.
+(define (benchmark name count setup proc)
+  (define (run-round)
+    (let ((data (make-vector count)))
+      (do ((i 0 (+ i 1))) ((= i count))
+        (vector-set! data i (setup)))
+      (let ((start (current-milliseconds)))
+        (do ((i 0 (+ i 1))) ((= i count))
+          (proc (vector-ref data i)))
+        (- (current-milliseconds) start))))
+  (run-round)
+  (let loop ((round 0) (best #f) (total 0))
+    (if (< round *benchmark-rounds*)
+        (let ((elapsed (run-round)))
+          (loop (+ round 1)
+                (if (or (not best) (< elapsed best)) elapsed best)
+                (+ total elapsed)))
+        (report-benchmark name
+                          (/ (exact->inexact best) count)
+                          (/ (exact->inexact total) (* count *benchmark-rounds*))))))
+
+
+(define (no-setup) #f)
+
+
+(define (report-benchmark name best mean)
+  (display (pad-right name 48))
+  (display " best ")
+  (display (pad-left (format-milliseconds best) 10))
+  (display " ms  mean ")
+  (display (pad-left (format-milliseconds mean) 10))
+  (display " ms")
+  (newline))
+
+
+(define (format-milliseconds ms)
+  (number->string (/ (round (* ms 1000)) 1000)))
+
+
+(define (pad-right str width)
+  (if (< (string-length str) width)
+      (string-append str (make-string (- width (string-length str)) #\space))
+      str))
+
+
+(define (pad-left str width)
+  (if (< (string-length str) width)
+      (string-append (make-string (- width (string-length str)) #\space) str)
+      str))
+
+
+;;;
+;;;; * Corpus
+;;;
+
+
+(define (read-text-file filename)
+  (call-with-input-file filename
+    (lambda (port)
+      (let ((out (open-output-string)))
+        (let loop ((ch (read-char port)))
+          (if (eof-object? ch)
+              (get-output-string out)
+              (begin
+                (write-char ch out)
+                (loop (read-char port)))))))))
+
+
+(define (scheme-files-in-directory directory)
+  (let ((files (*:listFiles (java.io.File:new (as <String> directory)))))
+    (if (eq? files #!null)
+        '()
+        (filter (lambda (file)
+                  (and (*:isFile file)
+                       (*:endsWith (*:getName file) ".scm")))
+                (array->list files)))))
+
+
+;; A simple linear congruential generator, so that the synthetic corpus is
+;; the same on every run.
+(define (make-random-generator seed)
+  (let ((state seed))
+    (lambda (n)
+      (set! state (modulo (+ (* state 1103515245) 12345) 2147483648))
+      (modulo (quotient state 65536) n))))
+
+
+(define *synthetic-words*
+  '#("define" "let" "let*" "lambda" "if" "cond" "else" "begin" "set!" "car" "cdr"
+     "cons" "list" "vector-ref" "string-append" "call-with-current-continuation"
+     "x" "y" "result" "document" "offset" "loop" "index" "make-table"))
+
+
+;; Generates a Scheme file of count top-level definitions, mixing nested
+;; forms, strings, comments, characters and quoted data.
+(define (synthetic-corpus count)
+  (let ((random (make-random-generator 20061018))
+        (out    (open-output-string)))
+    (define (word)
+      (vector-ref *synthetic-words* (random (vector-length *synthetic-words*))))
+    (define (indent depth)
+      (newline out)
+      (display (make-string (* 2 depth) #\space) out))
+    (define (expression depth)
+      (let ((kind (random (if (< depth 6) 10 5))))
+        (cond ((= kind 0) (display (random 100000) out))
+              ((= kind 1) (display "\"a string with \\\"quotes\\\" and (parens)\"" out))
+              ((= kind 2) (display "#\\(" out))
+              ((= kind 3) (display "'(a b . c)" out))
+              ((= kind 4) (display (word) out))
+              (else
+               (display (if (= kind 5) "[" "(") out)
+               (display (word) out)
+               (let loop ((i (+ 1 (random 4))))
+                 (if (> i 0)
+                     (begin
+                       (if (= (random 3) 0)
+                           (indent (+ depth 1))
+                           (display " " out))
+                       (expression (+ depth 1))
+                       (loop (- i 1)))))
+               (display (if (= kind 5) "]" ")") out)))))
+    (let loop ((form 0))
+      (if (< form count)
+          (begin
+            (cond ((= (random 4) 0)
+                   (display ";; comment number " out)
+                   (display form out)
+                   (newline out))
+                  ((= (random 10) 0)
+                   (display "#| block comment" out)
+                   (newline out)
+                   (display "   spanning two lines |#" out)
+                   (newline out)))
+            (display "(define (function-" out)
+            (display form out)
+            (display " x y)" out)
+            (indent 1)
+            (expression 1)
+            (display ")" out)
+            (newline out)
+            (newline out)
+            (loop (+ form 1)))))
+    (get-output-string out)))
+
+
+;; Returns the corpus as a list of (name . text) pairs.
+(define (benchmark-corpus plugin-directory)
+  (let ((files (append-map (lambda (directory)
+                             (scheme-files-in-directory (string-append plugin-directory "/" directory)))
+                           '("conf" "conf/languages" "examples" "tests"))))
+    (append (map (lambda (file)
+                   (cons (*:getName file) (read-text-file (*:getPath file))))
+                 files)
+            (list (cons "synthetic.scm" (synthetic-corpus 1000))))))
+
+
+(define (make-benchmark-document text)
+  (let ((document (BenchDocument:new (as <String> (*:toString text)))))
+    (BenchSetup:setup (BenchSetup:new) document)
+    document))
+
+
+(define (corpus-size corpus)
+  (fold (lambda (entry size) (+ size (string-length (cdr entry)))) 0 corpus))
+
+
+;;;
+;;;; * Benchmarks
+;;;
+
+
+(define (scan-all-tokens document)
+  (let ((scanner (BenchScanner:new)))
+    (BenchScanner:setRange scanner (as <org.eclipse.jface.text.IDocument> document) 0 (IDocument:getLength document))
+    (let loop ((token (BenchScanner:nextToken scanner)))
+      (if (not (eq? token *benchmark-eof-token*))
+          (loop (BenchScanner:nextToken scanner))))))
+
+
+(define (partition-all document)
+  (let ((scanner (BenchPartitioner:new)))
+    (BenchPartitioner:setRange scanner document 0 (IDocument:getLength document))
+    (let loop ((token (BenchPartitioner:nextToken scanner)))
+      (if (not (*:isEOF token))
+          (loop (BenchPartitioner:nextToken scanner))))))
+
+
+;; Moves the navigator from every step-th offset of the document.
+(define (navigate-all document move)
+  (let ((navigator (SexpNavigator:new document))
+        (length    (IDocument:getLength document)))
+    (let loop ((offset 0))
+      (if (< offset length)
+          (begin
+            (move navigator offset)
+            (loop (+ offset 37)))))))
+
+
+(define (benchmark-indentation-context document)
+  (SchemeIndentationContext:new (SexpNavigator:new document)
+                                (*:getIndentationManager (*:getTextTools (SchemePlugin:getDefault)))
+                                0))
+
+
+(define (find-all-indentations document)
+  (let ((context (benchmark-indentation-context document))
+        (lines   (IDocument:getNumberOfLines document)))
+    (let loop ((line 0))
+      (if (< line lines)
+          (begin
+            (SchemeIndentationContext:setOffset context (IDocument:getLineOffset document line))
+            (BenchIndentation:findIndentation context)
+            (loop (+ line 1)))))))
+
+
+(define (indent-whole-document document)
+  (FormatAction:indentLines document
+                            0
+                            (- (IDocument:getNumberOfLines document) 1)
+                            (benchmark-indentation-context document)
+                            #!null
+                            -1))
+
+
+(define (collect-references document)
+  (let ((builder (BenchSegmentBuilder:new))
+        (scanner (BenchScanner:new)))
+    (BenchScanner:setRange scanner (as <org.eclipse.jface.text.IDocument> document) 0 (IDocument:getLength document))
+    (let loop ((token (BenchScanner:nextToken scanner)))
+      (if (not (eq? token *benchmark-eof-token*))
+          (begin
+            (if (= (*:getType token) *benchmark-symbol-token*)
+                (let ((offset (BenchScanner:getTokenOffset scanner)))
+                  (BenchSegmentBuilder:add builder
+                                           (BenchScanner:getText scanner offset (BenchScanner:getTokenLength scanner))
+                                           offset)))
+            (loop (BenchScanner:nextToken scanner)))))
+    builder))
+
+
+(define (benchmark-resource name)
+  (*:getFile (*:getRoot (RsrcPlugin:getWorkspace)) (Path:new (string-append "/benchmarks/" name))))
+
+
+(define (benchmark-documents corpus)
+  (let ((total (corpus-size corpus)))
+    (display "Corpus: ")
+    (display (length corpus))
+    (display " files, ")
+    (display total)
+    (display " characters")
+    (newline)
+    (newline)
+    (for-each (lambda (entry)
+                (let ((document (make-benchmark-document (cdr entry)))
+                      (name     (car entry)))
+                  (benchmark (string-append "scanner " name) 5 no-setup
+                             (lambda (ignored) (scan-all-tokens document)))
+                  (benchmark (string-append "partitioner " name) 5 no-setup
+                             (lambda (ignored) (partition-all document)))
+                  (benchmark (string-append "navigator forward " name) 1 no-setup
+                             (lambda (ignored) (navigate-all document
+                                                           (lambda (navigator offset) (SexpNavigator:forwardSexpression navigator offset)))))
+                  (benchmark (string-append "navigator backward " name) 1 no-setup
+                             (lambda (ignored) (navigate-all document
+                                                           (lambda (navigator offset) (SexpNavigator:backwardSexpression navigator offset)))))
+                  (benchmark (string-append "navigator up " name) 1 no-setup
+                             (lambda (ignored) (navigate-all document
+                                                           (lambda (navigator offset) (SexpNavigator:upSexpression navigator offset)))))
+                  (benchmark (string-append "findIndentation " name) 1 no-setup
+                             (lambda (ignored) (find-all-indentations document)))
+                  (benchmark (string-append "indentLines " name) 1
+                             (lambda () (make-benchmark-document (cdr entry)))
+                             indent-whole-document)))
+              corpus)))
+
+
+(define (benchmark-references corpus)
+  (let ((segments (map (lambda (entry)
+                         (cons (benchmark-resource (car entry))
+                               (collect-references (make-benchmark-document (cdr entry)))))
+                       corpus))
+        (symbols  '("define" "lambda" "x" "SexpNavigator:getSexpStart" "no-such-symbol")))
+    (define (fill-table)
+      (let ((table (BenchReferences:new)))
+        (for-each (lambda (segment)
+                    (BenchReferences:setReferences table (car segment) (cdr segment)))
+                  segments)
+        table))
+    (benchmark "references: set all files" 10 no-setup
+               (lambda (ignored) (fill-table)))
+    (benchmark "references: query in all files" 100 fill-table
+               (lambda (table)
+                 (for-each (lambda (symbol) (BenchReferences:getReferences table symbol)) symbols)))
+    (benchmark "references: query in one file" 100 fill-table
+               (lambda (table)
+                 (for-each (lambda (symbol) (BenchReferences:getReferences table symbol (caar segments))) symbols)))
+    (benchmark "references: remove all files" 10 fill-table
+               (lambda (table)
+                 (for-each (lambda (segment) (BenchReferences:removeReferences table (car segment))) segments)))))
+
+
+(define (benchmark-completions)
+  (let ((prefixes '("" "c" "str" "string-" "call-with-" "vector-ref" "no-such-prefix")))
+    (for-each (lambda (prefix)
+                (benchmark (string-append "find-completions \"" prefix "\" limit 200") 10 no-setup
+                           (lambda (ignored) (find-completions prefix 200)))
+                (benchmark (string-append "find-completions \"" prefix "\" unlimited") 10 no-setup
+                           (lambda (ignored) (find-completions prefix))))
+              prefixes)))
+
+
+(define (run-benchmarks plugin-directory)
+  (let ((corpus (benchmark-corpus plugin-directory)))
+    (benchmark-documents corpus)
+    (newline)
+    (benchmark-references corpus)
+    (newline)
+    (benchmark-completions)))